@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.*;
+
+/**
+ * The outcome of {@link ExpressionBuilder#buildAll(Collection, ParserContext,
+ * java.util.concurrent.Executor)}: for each formula, in the order of the input, either the built
+ * expression or the exception thrown while building it. Unknown names are reported as {@link
+ * net.objecthunter.exp4j.exception.UnknownFunctionOrVariableException}, which holds their
+ * position in the formula.
+ */
+public final class BulkBuildResult {
+
+  private final Expression[] expressions;
+
+  private final RuntimeException[] errors;
+
+  private final int errorCount;
+
+  BulkBuildResult(Expression[] expressions, RuntimeException[] errors) {
+    this.expressions = expressions;
+    this.errors = errors;
+    int count = 0;
+    for (RuntimeException error : errors) {
+      if (error != null) {
+        count++;
+      }
+    }
+    this.errorCount = count;
+  }
+
+  /**
+   * Get the number of formulas
+   *
+   * @return the number of formulas passed to buildAll
+   */
+  public int size() {
+    return expressions.length;
+  }
+
+  /**
+   * Check if a formula has been built
+   *
+   * @param index the index of the formula
+   * @return true if the formula has been built, false if building it failed
+   */
+  public boolean isSuccess(int index) {
+    return errors[index] == null;
+  }
+
+  /**
+   * Get the expression built from a formula
+   *
+   * @param index the index of the formula
+   * @return the expression or null if building it failed
+   */
+  public Expression getExpression(int index) {
+    return expressions[index];
+  }
+
+  /**
+   * Get the error of a formula
+   *
+   * @param index the index of the formula
+   * @return the exception thrown while building the formula or null if it has been built
+   */
+  public RuntimeException getError(int index) {
+    return errors[index];
+  }
+
+  /**
+   * Get the errors of all formulas which could not be built
+   *
+   * @return the exceptions by index of the formula, in ascending order
+   */
+  public SortedMap<Integer, RuntimeException> getErrors() {
+    SortedMap<Integer, RuntimeException> result = new TreeMap<>();
+    for (int i = 0; i < errors.length; i++) {
+      if (errors[i] != null) {
+        result.put(i, errors[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the expressions of all formulas which have been built
+   *
+   * @return the expressions, in the order of the formulas, without the failed ones
+   */
+  public List<Expression> getExpressions() {
+    List<Expression> result = new ArrayList<>(expressions.length - errorCount);
+    for (Expression expression : expressions) {
+      if (expression != null) {
+        result.add(expression);
+      }
+    }
+    return result;
+  }
+
+  public int getSuccessCount() {
+    return expressions.length - errorCount;
+  }
+
+  public int getErrorCount() {
+    return errorCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "BulkBuildResult{size=%d, errors=%d}", expressions.length, errorCount);
+  }
+}
@@ -15,66 +15,132 @@
  */
 package net.objecthunter.exp4j;
 
+import net.objecthunter.exp4j.exception.ErrorCode;
 import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.function.Function3;
 import net.objecthunter.exp4j.function.Functions;
 import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operator1;
+import net.objecthunter.exp4j.operator.Operator2;
 import net.objecthunter.exp4j.tokenizer.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.ToDoubleFunction;
+import java.util.function.UnaryOperator;
 
+/**
+ * An expression ready to be evaluated. The expression itself is held in a compact, immutable
+ * {@link Program}, which is shared by all copies of the expression, while the variable values are
+ * kept in an array with one slot for each distinct variable. An expression of a dozen tokens takes
+ * about 280 bytes, or 23 bytes per token, of which about 150 bytes are the fixed overhead of the
+ * objects and arrays; each additional token costs one byte plus eight bytes for a new constant or
+ * variable.
+ */
 public class Expression {
 
-  private final List<Token> tokens;
+  /* NaN with a payload that marks the slots of variables without a value */
+  private static final long UNSET = 0x7ff80000deadbeefL;
+
+  private static final double UNSET_VALUE = Double.longBitsToDouble(UNSET);
+
+  private static final double[] NO_VALUES = {};
+
+  /* the number of binding sets evaluated by a single task of evaluateAllAsync */
+  private static final int EVALUATE_ALL_CHUNK_SIZE = 256;
+
+  static final Map<String, Double> DEFAULT_VARIABLES = createDefaultVariables();
 
-  private final Map<String, Double> variables;
+  private final Program program;
 
-  private final Set<String> userFunctionNames;
+  private final double[] values;
 
   private static Map<String, Double> createDefaultVariables() {
-    Map<String, Double> vars = new HashMap<>(4);
+    Map<String, Double> vars = new HashMap<>(8);
     vars.put("pi", Math.PI);
     vars.put("π", Math.PI);
     vars.put("φ", 1.61803398874d);
     vars.put("e", Math.E);
-    return vars;
+    return Collections.unmodifiableMap(vars);
   }
 
   /**
-   * Creates a new expression that is a copy of the existing one.
+   * Creates a new expression that is a copy of the existing one, e.g. to give each thread its own
+   * instance. The immutable program is shared, only the variable values are copied, so a copy
+   * costs the expression object and one array of a double per distinct variable, regardless of
+   * the size of the expression. The copy starts with the current variable values of the existing
+   * expression; later changes to either expression do not affect the other.
    *
    * @param existing the expression to copy
    */
   public Expression(Expression existing) {
-    tokens = new ArrayList<>();
-    tokens.addAll(existing.tokens);
-
-    variables = new HashMap<>();
-    variables.putAll(existing.variables);
-    userFunctionNames = new HashSet<>(existing.userFunctionNames);
+    program = existing.program;
+    values = existing.values.length == 0 ? NO_VALUES : existing.values.clone();
   }
 
   Expression(List<Token> tokens) {
-    this.tokens = tokens;
-    variables = createDefaultVariables();
-    userFunctionNames = Collections.emptySet();
+    this(tokens, Collections.emptySet());
   }
 
   Expression(List<Token> tokens, Set<String> userFunctionNames) {
-    this.tokens = tokens;
-    variables = createDefaultVariables();
-    this.userFunctionNames = userFunctionNames;
+    this(Program.compile(tokens, userFunctionNames));
+  }
+
+  Expression(Program program) {
+    this.program = program;
+    String[] names = program.variables;
+    if (names.length == 0) {
+      values = NO_VALUES;
+      return;
+    }
+    values = new double[names.length];
+    for (int i = 0; i < names.length; i++) {
+      Double value = DEFAULT_VARIABLES.get(names[i]);
+      values[i] = value == null ? UNSET_VALUE : value;
+    }
+  }
+
+  Program getProgram() {
+    return program;
+  }
+
+  /** The values of the variables, indexed like {@link Program#variables} */
+  double[] getValues() {
+    return values;
+  }
+
+  /**
+   * Estimate the memory used by this expression in bytes, assuming compressed references: the
+   * expression object, the variable values and the program.
+   */
+  long estimateSize() {
+    return 16L + Program.arraySize(values.length, 8) + program.estimateSize();
+  }
+
+  static boolean isUnset(double value) {
+    return Double.doubleToRawLongBits(value) == UNSET;
   }
 
   public Expression setVariable(String name, double value) {
     checkVariableName(name);
-    variables.put(name, value);
+    int slot = program.slotOf(name);
+    if (slot >= 0) {
+      values[slot] = value;
+    }
     return this;
   }
 
   private void checkVariableName(String name) {
-    if (userFunctionNames.contains(name) || Functions.getBuiltInFunction(name) != null) {
+    if (program.userFunctionNames.contains(name) || Functions.getBuiltInFunction(name) != null) {
       throw new IllegalArgumentException(
           String.format(
               "The variable name '%s' is invalid. Since there exists a function with the same name",
@@ -90,33 +156,213 @@ public class Expression {
   }
 
   public void clearVariables() {
-    variables.clear();
+    Arrays.fill(values, UNSET_VALUE);
   }
 
   public Set<String> getVariableNames() {
-    Set<String> tVariables = new HashSet<>();
-    for (Token t : tokens) {
-      if (t.getType() == TokenType.TOKEN_VARIABLE) {
-        tVariables.add(((VariableToken) t).getName());
+    return new HashSet<>(Arrays.asList(program.variables));
+  }
+
+  /**
+   * Create an expression with the variables defined by a scope replaced by their values. The
+   * values are fixed when this method is called, so the new expression and its copies only hold
+   * and check the remaining variables, which keep their current values.
+   *
+   * @param scope the scope, e.g. the parameters of a tenant chained to global constants
+   * @return the new expression
+   */
+  public Expression withScope(VariableScope scope) {
+    Program bound = program.bind(scope);
+    if (bound == program) {
+      return new Expression(this);
+    }
+    Expression e = new Expression(bound);
+    for (int i = 0; i < values.length; i++) {
+      int slot = bound.slotOf(program.variables[i]);
+      if (slot >= 0) {
+        e.values[slot] = values[i];
+      }
+    }
+    return e;
+  }
+
+  /**
+   * Get a thread-safe function of a single variable evaluating this expression. The other
+   * variables keep the values they have when this method is called.
+   *
+   * @param variable the name of the variable passed as argument
+   * @return the function
+   * @throws IllegalArgumentException if the expression is not valid or another variable has not
+   *     been set
+   */
+  public DoubleUnaryOperator asDoubleUnaryOperator(String variable) {
+    Program program = this.program;
+    double[] base = bind(variable);
+    int slot = program.slotOf(variable);
+    return x -> {
+      double[] values = base.clone();
+      if (slot >= 0) {
+        values[slot] = x;
+      }
+      return evaluateProgram(program, values, null);
+    };
+  }
+
+  /**
+   * Get a thread-safe function of two variables evaluating this expression. The other variables
+   * keep the values they have when this method is called.
+   *
+   * @param left the name of the variable passed as first argument
+   * @param right the name of the variable passed as second argument
+   * @return the function
+   * @throws IllegalArgumentException if the expression is not valid or another variable has not
+   *     been set
+   */
+  public DoubleBinaryOperator asDoubleBinaryOperator(String left, String right) {
+    Program program = this.program;
+    double[] base = bind(left, right);
+    int leftSlot = program.slotOf(left);
+    int rightSlot = program.slotOf(right);
+    return (x, y) -> {
+      double[] values = base.clone();
+      if (leftSlot >= 0) {
+        values[leftSlot] = x;
+      }
+      if (rightSlot >= 0) {
+        values[rightSlot] = y;
+      }
+      return evaluateProgram(program, values, null);
+    };
+  }
+
+  /**
+   * Get a thread-safe function evaluating this expression for an array of variable values. The
+   * other variables keep the values they have when this method is called.
+   *
+   * @param variables the names of the variables, in the order of their values in the arrays
+   * @return the function, which throws an {@link ArrayIndexOutOfBoundsException} if an array has
+   *     less values than there are variables
+   * @throws IllegalArgumentException if the expression is not valid or another variable has not
+   *     been set
+   */
+  public ToDoubleFunction<double[]> asFunction(String... variables) {
+    Program program = this.program;
+    double[] base = bind(variables);
+    int[] slots = new int[variables.length];
+    for (int i = 0; i < variables.length; i++) {
+      slots[i] = program.slotOf(variables[i]);
+    }
+    return args -> {
+      double[] values = base.clone();
+      for (int i = 0; i < slots.length; i++) {
+        double value = args[i];
+        if (slots[i] >= 0) {
+          values[slots[i]] = value;
+        }
       }
+      return evaluateProgram(program, values, null);
+    };
+  }
+
+  /**
+   * Check that this expression can be evaluated once the given variables are set
+   *
+   * @return a copy of the current variable values
+   */
+  private double[] bind(String... variables) {
+    if (program.maxStackDepth < 0) {
+      throw new IllegalArgumentException(
+          "The expression is not valid: " + validate(false).getErrors());
+    }
+    Set<String> bound = new HashSet<>();
+    for (String name : variables) {
+      checkVariableName(name);
+      bound.add(name);
     }
-    return tVariables;
+    for (int i = 0; i < values.length; i++) {
+      if (isUnset(values[i]) && !bound.contains(program.variables[i])) {
+        throw new IllegalArgumentException(
+            String.format("No value has been set for the setVariable '%s'.", program.variables[i]));
+      }
+    }
+    return values.clone();
+  }
+
+  /**
+   * Get the canonical form of this expression, which is the same for expressions differing only
+   * in whitespace, bracket style, redundant parentheses, the notation of numbers, implicit
+   * multiplication or the order of the operands of an addition or multiplication. For example
+   * {@code y + 2*x} and {@code 2x+y} both have the canonical form {@code y + 2 * x}. Operations
+   * are never regrouped, so expressions with the same canonical form always evaluate to the same
+   * result.
+   *
+   * @return the canonical form, which can be parsed again
+   * @throws IllegalArgumentException if the expression is not valid
+   */
+  public String canonicalForm() {
+    return Node.of(program, UnaryOperator.identity()).toCanonicalString();
+  }
+
+  /**
+   * Get a 64 bit hash of the {@link #canonicalForm() canonical form} of this expression, e.g. to
+   * deduplicate equivalent formulas. Equivalent expressions have the same hash. Different
+   * expressions have different hashes with high probability, but a cache relying on the hash
+   * should compare the canonical forms as well.
+   *
+   * @return the FNV-1a hash of the canonical form
+   * @throws IllegalArgumentException if the expression is not valid
+   */
+  public long semanticHash() {
+    String canonical = canonicalForm();
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < canonical.length(); i++) {
+      hash ^= canonical.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
   }
 
   public ValidationResult validate(boolean checkVariablesSet) {
-    List<String> errors = new ArrayList<>(0);
+    ValidationReport report = new ValidationReport();
+    validate(report, checkVariablesSet);
+    return report.toValidationResult();
+  }
+
+  /**
+   * Validate this expression, recording the errors as codes in a report instead of formatting
+   * messages. The report is cleared first and can be reused for many expressions. The position
+   * of each error is the index of the offending token in reverse polish notation, or the number of
+   * tokens for errors found after the last one. {@link ExpressionBuilder#tryBuild(ValidationReport)}
+   * maps these positions to chars of the expression.
+   *
+   * @param report the report receiving the errors
+   * @param checkVariablesSet true to report variables which have no value
+   * @return true if the expression is valid
+   */
+  public boolean validate(ValidationReport report, boolean checkVariablesSet) {
+    report.clear();
+    byte[] code = program.code;
     if (checkVariablesSet) {
       /* check that all vars have a value set */
-      for (Token t : tokens) {
-        if (t.getType() == TokenType.TOKEN_VARIABLE) {
-          String vars = ((VariableToken) t).getName();
-          if (!variables.containsKey(vars)) {
-            errors.add(String.format("The setVariable '%s' has not been set", vars));
-          }
+      for (int pc = 0, token = 0; pc < code.length; token++) {
+        int instruction = code[pc++];
+        int index = instruction & Program.INDEX_MASK;
+        if (index == Program.WIDE_INDEX) {
+          index = Program.wideIndex(code, pc);
+          pc += 3;
+        }
+        int opcode = instruction >> Program.OPCODE_SHIFT & 3;
+        if (opcode == Program.VARIABLE && isUnset(values[index])) {
+          report.add(ErrorCode.VARIABLE_NOT_SET, token, program.variables[index]);
         }
       }
     }
 
+    if (program.maxStackDepth > 0) {
+      /* the structure has already been checked when the program was compiled */
+      return report.isValid();
+    }
+
     /* Check if the number of operands, functions and operators match.
     The idea is to increment a counter for operands and decrease it for operators.
     When a function occurs the number of available arguments has to be greater
@@ -124,17 +370,24 @@ public class Expression {
     The count has to be larger than 1 at all times and exactly 1 after all tokens
     have been processed */
     int count = 0;
-    for (Token tok : tokens) {
-      switch (tok.getType()) {
-        case TOKEN_NUMBER:
-        case TOKEN_VARIABLE:
+    int token = 0;
+    for (int pc = 0; pc < code.length; token++) {
+      int instruction = code[pc++];
+      int index = instruction & Program.INDEX_MASK;
+      if (index == Program.WIDE_INDEX) {
+        index = Program.wideIndex(code, pc);
+        pc += 3;
+      }
+      switch (instruction >> Program.OPCODE_SHIFT & 3) {
+        case Program.CONSTANT:
+        case Program.VARIABLE:
           count++;
           break;
-        case TOKEN_FUNCTION:
-          Function func = ((FunctionToken) tok).getFunction();
+        case Program.FUNCTION:
+          Function func = program.functions[index];
           int argsNum = func.getNumArguments();
           if (argsNum > count) {
-            errors.add("Not enough arguments for '" + func.getName() + "'");
+            report.add(ErrorCode.NOT_ENOUGH_ARGUMENTS, token, func.getName());
           }
           if (argsNum > 1) {
             count -= argsNum - 1;
@@ -143,24 +396,25 @@ public class Expression {
             count++;
           }
           break;
-        case TOKEN_OPERATOR:
-          Operator op = ((OperatorToken) tok).getOperator();
+        default:
+          Operator op = program.operators[index];
           if (op.getNumOperands() == 2) {
             count--;
           }
           break;
-        default:
-          break;
       }
       if (count < 1) {
-        errors.add("Too many operators");
-        return new ValidationResult(false, errors);
+        report.add(ErrorCode.TOO_MANY_OPERATORS, token, null);
+        return false;
       }
     }
     if (count > 1) {
-      errors.add("Too many operands");
+      report.add(ErrorCode.TOO_MANY_OPERANDS, token, null);
+    } else if (count == 0) {
+      /* only an empty program leaves the count at 0 without too many operators */
+      report.add(ErrorCode.EMPTY_EXPRESSION, token, null);
     }
-    return errors.isEmpty() ? ValidationResult.SUCCESS : new ValidationResult(false, errors);
+    return report.isValid();
   }
 
   public ValidationResult validate() {
@@ -171,58 +425,273 @@ public class Expression {
     return executor.submit(this::evaluate);
   }
 
+  /**
+   * Evaluate a copy of this expression with the given variable values asynchronously. The values
+   * are copied before this method returns, so neither this expression nor the bindings are used
+   * by the task and any number of evaluations can run at the same time.
+   *
+   * @param bindings the variable values by name, in addition to the values already set
+   * @param executor the executor running the evaluation
+   * @return a future completing with the result or the exception thrown by {@link #evaluate()}
+   * @throws IllegalArgumentException if a variable has the name of a function
+   */
+  public CompletableFuture<Double> evaluateAsync(Map<String, Double> bindings, Executor executor) {
+    Expression copy = new Expression(this).setVariables(bindings);
+    return CompletableFuture.supplyAsync(copy::evaluate, executor);
+  }
+
+  /**
+   * Evaluate a copy of this expression with the given variable values asynchronously, using a
+   * virtual thread per evaluation if the runtime supports them and the common fork join pool
+   * otherwise
+   *
+   * @param bindings the variable values by name, in addition to the values already set
+   * @return a future completing with the result or the exception thrown by {@link #evaluate()}
+   * @throws IllegalArgumentException if a variable has the name of a function
+   * @see #evaluateAsync(Map, Executor)
+   */
+  public CompletableFuture<Double> evaluateAsync(Map<String, Double> bindings) {
+    return evaluateAsync(bindings, DefaultExecutor.INSTANCE);
+  }
+
+  /**
+   * Evaluate this expression for many sets of variable values asynchronously. The sets are split
+   * into chunks, each evaluated by a single task using its own copy of this expression. Every set
+   * is applied on top of the variable values of this expression at the time of the call. The
+   * bindings must not be modified until the returned future completes.
+   *
+   * @param bindings the sets of variable values by name
+   * @param executor the executor running the chunks
+   * @return a future completing with the results in the order of the bindings, or with the first
+   *     exception thrown by an evaluation
+   */
+  public CompletableFuture<double[]> evaluateAllAsync(
+      List<Map<String, Double>> bindings, Executor executor) {
+    Expression base = new Expression(this);
+    List<Map<String, Double>> list = new ArrayList<>(bindings);
+    double[] results = new double[list.size()];
+    List<CompletableFuture<Void>> tasks = new ArrayList<>();
+    for (int from = 0; from < list.size(); from += EVALUATE_ALL_CHUNK_SIZE) {
+      int start = from;
+      int end = Math.min(from + EVALUATE_ALL_CHUNK_SIZE, list.size());
+      tasks.add(
+          CompletableFuture.runAsync(
+              () -> {
+                Expression e = new Expression(base);
+                for (int i = start; i < end; i++) {
+                  System.arraycopy(base.values, 0, e.values, 0, e.values.length);
+                  results[i] = e.setVariables(list.get(i)).evaluate();
+                }
+              },
+              executor));
+    }
+    return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]))
+        .thenApply(v -> results);
+  }
+
+  /**
+   * Evaluate this expression for many sets of variable values asynchronously, on virtual threads
+   * if the runtime supports them and the common fork join pool otherwise
+   *
+   * @param bindings the sets of variable values by name
+   * @return a future completing with the results in the order of the bindings
+   * @see #evaluateAllAsync(List, Executor)
+   */
+  public CompletableFuture<double[]> evaluateAllAsync(List<Map<String, Double>> bindings) {
+    return evaluateAllAsync(bindings, DefaultExecutor.INSTANCE);
+  }
+
   public double evaluate() {
-    ArrayStack output = new ArrayStack();
-    for (Token t : tokens) {
-      if (t.getType() == TokenType.TOKEN_NUMBER) {
-        output.push(((NumberToken) t).getValue());
-      } else if (t.getType() == TokenType.TOKEN_VARIABLE) {
-        String name = ((VariableToken) t).getName();
-        Double value = variables.get(name);
-        if (value == null) {
-          throw new IllegalArgumentException(
-              String.format("No value has been set for the setVariable '%s'.", name));
-        }
-        output.push(value);
-      } else if (t.getType() == TokenType.TOKEN_OPERATOR) {
-        OperatorToken op = (OperatorToken) t;
-        if (output.size() < op.getOperator().getNumOperands()) {
-          throw new IllegalArgumentException(
-              String.format(
-                  "Invalid number of operands available for '%s' operator",
-                  op.getOperator().getSymbol()));
-        }
-        if (op.getOperator().getNumOperands() == 2) {
-          /* pop the operands and push the result of the operation */
-          double rightArg = output.pop();
-          double leftArg = output.pop();
-          output.push(op.getOperator().apply(leftArg, rightArg));
-        } else if (op.getOperator().getNumOperands() == 1) {
-          /* pop the operand and push the result of the operation */
-          double arg = output.pop();
-          output.push(op.getOperator().apply(arg));
-        }
-      } else if (t.getType() == TokenType.TOKEN_FUNCTION) {
-        FunctionToken func = (FunctionToken) t;
-        int numArguments = func.getFunction().getNumArguments();
-        if (output.size() < numArguments) {
-          throw new IllegalArgumentException(
-              String.format(
-                  "Invalid number of arguments available for '%s' function",
-                  func.getFunction().getName()));
-        }
-        /* collect the arguments from the stack */
-        double[] args = new double[numArguments];
-        for (int j = numArguments - 1; j >= 0; j--) {
-          args[j] = output.pop();
+    if (program.maxStackDepth < 0) {
+      return evaluateChecked();
+    }
+    return evaluateProgram(program, values, null);
+  }
+
+  /**
+   * Evaluate this expression, fetching the values of the variables which have not been set from a
+   * provider. The provider is only asked for the variables the evaluation actually reaches, and
+   * at most once per variable and evaluation. Fetched values are not stored in this expression.
+   *
+   * @param provider the provider of the variables which have not been set
+   * @return the result
+   * @throws IllegalArgumentException if the expression is not valid
+   */
+  public double evaluateWith(VariableProvider provider) {
+    if (program.maxStackDepth < 0) {
+      /* malformed programs are evaluated by the checked loop, which needs all values up front */
+      Expression copy = new Expression(this);
+      for (int i = 0; i < values.length; i++) {
+        if (isUnset(values[i])) {
+          copy.values[i] = provider.getValue(program.variables[i]);
         }
-        output.push(func.getFunction().apply(args));
+      }
+      return copy.evaluateChecked();
+    }
+    return evaluateProgram(program, values.length == 0 ? values : values.clone(), provider);
+  }
+
+  /**
+   * Evaluate a well formed program. The structure has been validated when the program was
+   * compiled, so the stack never underflows or overflows and only the variables need to be
+   * checked.
+   *
+   * @param program the program, whose {@link Program#maxStackDepth} must not be negative
+   * @param values the values of the variables of the program, unset values fetched from the
+   *     provider are stored in it
+   * @param provider the provider of the variables which have not been set, may be null
+   * @return the result
+   * @throws IllegalArgumentException if a variable has not been set and there is no provider
+   */
+  static double evaluateProgram(Program program, double[] values, VariableProvider provider) {
+    double[] stack = new double[program.maxStackDepth];
+    int top = -1;
+    byte[] code = program.code;
+    for (int pc = 0; pc < code.length; ) {
+      int instruction = code[pc++];
+      int index = instruction & Program.INDEX_MASK;
+      if (index == Program.WIDE_INDEX) {
+        index = Program.wideIndex(code, pc);
+        pc += 3;
+      }
+      switch (instruction >> Program.OPCODE_SHIFT & 3) {
+        case Program.CONSTANT:
+          stack[++top] = program.constants[index];
+          break;
+        case Program.VARIABLE:
+          double value = values[index];
+          if (isUnset(value)) {
+            if (provider == null) {
+              throw new IllegalArgumentException(
+                  String.format(
+                      "No value has been set for the setVariable '%s'.",
+                      program.variables[index]));
+            }
+            /* fetched once, later occurrences use the stored value */
+            value = provider.getValue(program.variables[index]);
+            values[index] = value;
+          }
+          stack[++top] = value;
+          break;
+        case Program.FUNCTION:
+          Function function = program.functions[index];
+          int numArguments = function.getNumArguments();
+          /* call functions of up to three arguments without an argument array if possible */
+          if (numArguments == 1 && function instanceof Function1) {
+            stack[top] = ((Function1) function).apply(stack[top]);
+          } else if (numArguments == 2 && function instanceof Function2) {
+            top--;
+            stack[top] = ((Function2) function).apply(stack[top], stack[top + 1]);
+          } else if (numArguments == 3 && function instanceof Function3) {
+            top -= 2;
+            stack[top] = ((Function3) function).apply(stack[top], stack[top + 1], stack[top + 2]);
+          } else {
+            double[] args = new double[numArguments];
+            top -= numArguments;
+            System.arraycopy(stack, top + 1, args, 0, numArguments);
+            stack[++top] = function.apply(args);
+          }
+          break;
+        default:
+          Operator op = program.operators[index];
+          if (op.getNumOperands() == 2) {
+            top--;
+            stack[top] =
+                op instanceof Operator2
+                    ? ((Operator2) op).apply(stack[top], stack[top + 1])
+                    : op.apply(stack[top], stack[top + 1]);
+          } else {
+            stack[top] =
+                op instanceof Operator1 ? ((Operator1) op).apply(stack[top]) : op.apply(stack[top]);
+          }
+          break;
+      }
+    }
+    return stack[0];
+  }
+
+  /** Evaluate a program which failed the structural check, reporting the problem when found */
+  private double evaluateChecked() {
+    ArrayStack output = new ArrayStack();
+    byte[] code = program.code;
+    for (int pc = 0; pc < code.length; ) {
+      int instruction = code[pc++];
+      int index = instruction & Program.INDEX_MASK;
+      if (index == Program.WIDE_INDEX) {
+        index = Program.wideIndex(code, pc);
+        pc += 3;
+      }
+      switch (instruction >> Program.OPCODE_SHIFT & 3) {
+        case Program.CONSTANT:
+          output.push(program.constants[index]);
+          break;
+        case Program.VARIABLE:
+          double value = values[index];
+          if (isUnset(value)) {
+            throw new IllegalArgumentException(
+                String.format(
+                    "No value has been set for the setVariable '%s'.", program.variables[index]));
+          }
+          output.push(value);
+          break;
+        case Program.FUNCTION:
+          Function function = program.functions[index];
+          int numArguments = function.getNumArguments();
+          if (output.size() < numArguments) {
+            throw new IllegalArgumentException(
+                String.format(
+                    "Invalid number of arguments available for '%s' function",
+                    function.getName()));
+          }
+          /* collect the arguments from the stack */
+          double[] args = new double[numArguments];
+          for (int j = numArguments - 1; j >= 0; j--) {
+            args[j] = output.pop();
+          }
+          output.push(function.apply(args));
+          break;
+        default:
+          Operator op = program.operators[index];
+          if (output.size() < op.getNumOperands()) {
+            throw new IllegalArgumentException(
+                String.format(
+                    "Invalid number of operands available for '%s' operator", op.getSymbol()));
+          }
+          if (op.getNumOperands() == 2) {
+            /* pop the operands and push the result of the operation */
+            double rightArg = output.pop();
+            double leftArg = output.pop();
+            output.push(op.apply(leftArg, rightArg));
+          } else if (op.getNumOperands() == 1) {
+            /* pop the operand and push the result of the operation */
+            double arg = output.pop();
+            output.push(op.apply(arg));
+          }
+          break;
       }
     }
     if (output.size() > 1) {
       throw new IllegalArgumentException(
           "Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
     }
+    if (output.size() == 0) {
+      throw new IllegalArgumentException(ErrorCode.EMPTY_EXPRESSION.format(null, 0));
+    }
     return output.pop();
   }
+
+  /** The executor of the async evaluations, created on first use */
+  private static final class DefaultExecutor {
+
+    static final Executor INSTANCE = create();
+
+    /* virtual threads are looked up reflectively, since they are only available from Java 21 */
+    private static Executor create() {
+      try {
+        return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        return ForkJoinPool.commonPool();
+      }
+    }
+  }
 }
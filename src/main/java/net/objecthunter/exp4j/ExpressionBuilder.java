@@ -16,13 +16,18 @@
 
 package net.objecthunter.exp4j;
 
+import net.objecthunter.exp4j.exception.ParseFailure;
 import net.objecthunter.exp4j.function.Function;
 import net.objecthunter.exp4j.function.Functions;
 import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.operator.Operators;
-import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.Tokenizer;
+import net.objecthunter.exp4j.tokenizer.Utf8CharSequence;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Factory class for {@link Expression} instances. This class is the main API entrypoint. Users
@@ -30,23 +35,45 @@ import java.util.*;
  */
 public class ExpressionBuilder {
 
-  private final String expression;
+  /* the number of formulas built by a single task of buildAll */
+  private static final int BUILD_ALL_CHUNK_SIZE = 512;
 
-  private final Map<String, Function> userFunctions;
+  private final CharSequence expression;
 
-  private final Map<String, Operator> userOperators;
+  private Map<String, Function> userFunctions;
 
-  private final Set<String> variableNames;
+  private Map<String, Operator> userOperators;
+
+  private Set<String> variableNames;
 
   private boolean implicitMultiplication = true;
 
+  private boolean overridableConstants;
+
+  private VariableScope scope = VariableScope.EMPTY;
+
+  /* the context the symbols are shared with, reset to null once they are modified */
+  private ParserContext context;
+
   /**
    * Create a new ExpressionBuilder instance and initialize it with a given expression string.
    *
    * @param expression the expression to be parsed
    */
   public ExpressionBuilder(String expression) {
-    if (expression == null || expression.trim().isEmpty()) {
+    this((CharSequence) expression);
+  }
+
+  /**
+   * Create a new ExpressionBuilder instance and initialize it with a given expression. The chars
+   * are tokenized in place when {@link #build()} is called, so views like a {@link
+   * java.nio.CharBuffer} over a memory mapped file can be passed without copying them into a
+   * String. The contents must not change until the expression has been built.
+   *
+   * @param expression the expression to be parsed
+   */
+  public ExpressionBuilder(CharSequence expression) {
+    if (expression == null || isBlank(expression)) {
       throw new IllegalArgumentException("Expression can not be empty");
     }
     this.expression = expression;
@@ -55,6 +82,78 @@ public class ExpressionBuilder {
     this.variableNames = new HashSet<>(4);
   }
 
+  /**
+   * Create a new ExpressionBuilder instance using the symbols of a {@link ParserContext}. The
+   * context's maps and precomputed symbol tables are shared until functions, operators or
+   * variables are added to this builder.
+   *
+   * @param expression the expression to be parsed
+   * @param context the context providing the functions, operators and variables
+   * @see ParserContext#expression(CharSequence)
+   */
+  public ExpressionBuilder(CharSequence expression, ParserContext context) {
+    if (expression == null || isBlank(expression)) {
+      throw new IllegalArgumentException("Expression can not be empty");
+    }
+    this.expression = expression;
+    this.context = context;
+    this.userOperators = context.getOperators();
+    this.userFunctions = context.getFunctions();
+    this.variableNames = context.getDeclaredVariableNames();
+    this.implicitMultiplication = context.isImplicitMultiplication();
+    this.overridableConstants = context.isOverridableConstants();
+  }
+
+  /** Copy the configuration of another builder, sharing the symbols of its context if it has one */
+  private ExpressionBuilder(ExpressionBuilder other) {
+    this.expression = other.expression.toString();
+    this.context = other.context;
+    if (context != null) {
+      this.userOperators = other.userOperators;
+      this.userFunctions = other.userFunctions;
+      this.variableNames = other.variableNames;
+    } else {
+      this.userOperators = new HashMap<>(other.userOperators);
+      this.userFunctions = new HashMap<>(other.userFunctions);
+      this.variableNames = new HashSet<>(other.variableNames);
+    }
+    this.implicitMultiplication = other.implicitMultiplication;
+    this.overridableConstants = other.overridableConstants;
+    this.scope = other.scope;
+  }
+
+  /** Copy the symbols shared with the context before modifying them */
+  private void detachFromContext() {
+    if (context != null) {
+      this.userOperators = new HashMap<>(userOperators);
+      this.userFunctions = new HashMap<>(userFunctions);
+      this.variableNames = new HashSet<>(variableNames);
+      this.context = null;
+    }
+  }
+
+  /**
+   * Create a new ExpressionBuilder instance and initialize it with an UTF-8 encoded expression.
+   * ASCII expressions are tokenized directly from the bytes, see {@link Utf8CharSequence}. The
+   * bytes must not change until the expression has been built.
+   *
+   * @param utf8 the bytes containing the expression
+   * @param offset the index of the expression's first byte
+   * @param length the number of bytes of the expression
+   */
+  public ExpressionBuilder(byte[] utf8, int offset, int length) {
+    this(Utf8CharSequence.of(utf8, offset, length));
+  }
+
+  private static boolean isBlank(CharSequence expression) {
+    for (int i = 0; i < expression.length(); i++) {
+      if (expression.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Add a {@link net.objecthunter.exp4j.function.Function} implementation available for use in the
    * expression
@@ -64,6 +163,7 @@ public class ExpressionBuilder {
    * @return the ExpressionBuilder instance
    */
   public ExpressionBuilder function(Function function) {
+    detachFromContext();
     this.userFunctions.put(function.getName(), function);
     return this;
   }
@@ -76,6 +176,7 @@ public class ExpressionBuilder {
    * @return the ExpressionBuilder instance
    */
   public ExpressionBuilder functions(Function... functions) {
+    detachFromContext();
     for (Function f : functions) {
       this.userFunctions.put(f.getName(), f);
     }
@@ -91,6 +192,7 @@ public class ExpressionBuilder {
    * @return the ExpressionBuilder instance
    */
   public ExpressionBuilder functions(List<Function> functions) {
+    detachFromContext();
     for (Function f : functions) {
       this.userFunctions.put(f.getName(), f);
     }
@@ -104,6 +206,7 @@ public class ExpressionBuilder {
    * @return the ExpressionBuilder instance
    */
   public ExpressionBuilder variables(Set<String> variableNames) {
+    detachFromContext();
     this.variableNames.addAll(variableNames);
     return this;
   }
@@ -115,6 +218,7 @@ public class ExpressionBuilder {
    * @return the ExpressionBuilder instance
    */
   public ExpressionBuilder variables(String... variableNames) {
+    detachFromContext();
     Collections.addAll(this.variableNames, variableNames);
     return this;
   }
@@ -126,6 +230,7 @@ public class ExpressionBuilder {
    * @return the ExpressionBuilder instance
    */
   public ExpressionBuilder variable(String variableName) {
+    detachFromContext();
     this.variableNames.add(variableName);
     return this;
   }
@@ -135,6 +240,40 @@ public class ExpressionBuilder {
     return this;
   }
 
+  /**
+   * Replace the variables defined by a scope with their values when the expression is built, see
+   * {@link Expression#withScope(VariableScope)}. The variables of the scope are declared if they
+   * have not been declared yet.
+   *
+   * @param scope the scope
+   * @return the ExpressionBuilder instance
+   */
+  public ExpressionBuilder scope(VariableScope scope) {
+    Set<String> names = scope.getNames();
+    if (!variableNames.containsAll(names)) {
+      variables(names);
+    }
+    this.scope = scope;
+    return this;
+  }
+
+  /**
+   * Keep the builtin constants {@code pi}, {@code π}, {@code e} and {@code φ} as variables, whose
+   * values can be changed with {@link Expression#setVariable(String, double)}. By default the
+   * constants are inlined as numbers when the expression is built. A single constant can also be
+   * made overridable by declaring a variable of the same name.
+   *
+   * @param enabled true to keep the constants as variables
+   * @return the ExpressionBuilder instance
+   */
+  public ExpressionBuilder overridableConstants(boolean enabled) {
+    if (context != null && enabled != context.isOverridableConstants()) {
+      detachFromContext();
+    }
+    this.overridableConstants = enabled;
+    return this;
+  }
+
   /**
    * Add an {@link net.objecthunter.exp4j.operator.Operator} which should be available for use in
    * the expression
@@ -143,12 +282,13 @@ public class ExpressionBuilder {
    * @return the ExpressionBuilder instance
    */
   public ExpressionBuilder operator(Operator operator) {
-    this.checkOperatorSymbol(operator);
+    checkOperatorSymbol(operator);
+    detachFromContext();
     this.userOperators.put(operator.getSymbol(), operator);
     return this;
   }
 
-  private void checkOperatorSymbol(Operator op) {
+  static void checkOperatorSymbol(Operator op) {
     String name = op.getSymbol();
     for (char ch : name.toCharArray()) {
       if (!Operators.isAllowedOperatorChar(ch)) {
@@ -194,31 +334,342 @@ public class ExpressionBuilder {
    *     expression
    */
   public Expression build() {
-    if (expression.isEmpty()) {
+    if (expression.length() == 0) {
+      throw new IllegalArgumentException("The expression can not be empty");
+    }
+
+    Expression built = new Expression(parser(false).parse(userFunctions.keySet()));
+    return scope == VariableScope.EMPTY ? built : built.withScope(scope);
+  }
+
+  /**
+   * Build the {@link Expression} instance like {@link #build()}, but record syntax and structural
+   * errors in a report instead of throwing an exception. The errors are kept as codes and their
+   * messages are only formatted on request, so checking large numbers of user supplied formulas
+   * is cheap, in particular for invalid ones. Variables are not checked, since they can not have
+   * been set yet. Errors in the configuration of the builder, e.g. a variable named like a
+   * function, are still thrown. The position of each error is the index of the offending char in
+   * the expression, see {@link ValidationReport}.
+   *
+   * @param report the report receiving the errors, cleared first
+   * @return the expression or null if the expression is not valid
+   */
+  public Expression tryBuild(ValidationReport report) {
+    report.clear();
+    if (expression.length() == 0) {
       throw new IllegalArgumentException("The expression can not be empty");
     }
 
-    /* set the constants' varibale names */
+    ExpressionParser parser = parser(true).recordOffsets();
+    Expression built;
+    try {
+      built = new Expression(parser.parse(userFunctions.keySet()));
+    } catch (ParseFailure e) {
+      report.add(e.getCode(), parser.toExpressionOffset(e.getPosition()), e.getSubject());
+      return null;
+    }
+    if (!built.validate(report, false)) {
+      /* the structural errors refer to instructions, report the chars they were read from */
+      for (int i = 0; i < report.getErrorCount(); i++) {
+        report.setPosition(i, parser.instructionOffset(report.getPosition(i)));
+      }
+      return null;
+    }
+    return scope == VariableScope.EMPTY ? built : built.withScope(scope);
+  }
+
+  /**
+   * Create the parser for the expression. Builders of a context use the context's symbol tables,
+   * other builders have their few names compared in place or put into a table for the single
+   * expression.
+   *
+   * @param reportFailures true to throw {@link ParseFailure}s instead of the usual exceptions
+   */
+  private ExpressionParser parser(boolean reportFailures) {
+    if (context != null) {
+      /* the context has already been checked and holds the symbol tables */
+      return new ExpressionParser(
+          expression,
+          context.getNames(),
+          context.getOperatorTrie(),
+          implicitMultiplication,
+          reportFailures);
+    }
+    Set<String> variables = variableNames;
+    if (overridableConstants) {
+      variables = new HashSet<>(variableNames);
+      addConstants(variables);
+    }
+    checkVariableNames(variables, userFunctions);
+    return new ExpressionParser(
+        expression,
+        variables,
+        userFunctions,
+        !overridableConstants,
+        Tokenizer.createOperators(userOperators),
+        implicitMultiplication,
+        reportFailures);
+  }
+
+  /**
+   * Create a handle for the expression which is parsed on first use instead of now. The current
+   * configuration of this builder is copied, so later changes to the builder do not affect the
+   * handle. Use builders created from a {@link ParserContext} to load many expressions lazily,
+   * since they share the symbols of the context instead of copying them.
+   *
+   * @return the {@link LazyExpression} handle
+   */
+  public LazyExpression buildLazy() {
+    ExpressionBuilder copy = new ExpressionBuilder(this);
+    return new LazyExpression((String) copy.expression, copy);
+  }
+
+  /**
+   * Build the expression and bind its variables to the properties of a class, e.g. the components
+   * of a record. Each variable {@code x} is read from a method {@code x()}, {@code getX()} or
+   * {@code isX()} without parameters or else from a field {@code x}, which may return any
+   * primitive type or a {@link Number}; booleans are read as 1 or 0. The accessors are resolved
+   * once, so evaluating an object neither needs a map nor any calls to {@link
+   * Expression#setVariable(String, double)}. The returned function is thread-safe.
+   *
+   * <pre>
+   * ToDoubleFunction&lt;Order&gt; total = new ExpressionBuilder("price * quantity")
+   *     .variables("price", "quantity")
+   *     .bindTo(Order.class);
+   * double sum = orders.stream().mapToDouble(total).sum();
+   * </pre>
+   *
+   * @param type the class of the objects
+   * @param <T> the type of the objects
+   * @return the function evaluating the expression for an object
+   * @throws IllegalArgumentException if the expression is not valid or a variable has no accessor
+   */
+  public <T> ToDoubleFunction<T> bindTo(Class<T> type) {
+    return ObjectBinding.of(build(), type);
+  }
+
+  /**
+   * Build many expressions concurrently. The formulas are split into chunks which are built by
+   * the executor, all sharing the symbols of the context. Formulas which can not be built are
+   * reported in the result instead of failing the whole batch.
+   *
+   * @param expressions the formulas to build
+   * @param context the context providing the functions, operators and variables
+   * @param executor the executor building the chunks, e.g. a {@link
+   *     java.util.concurrent.ForkJoinPool}
+   * @return the expressions and errors in the order of the formulas
+   */
+  public static BulkBuildResult buildAll(
+      Collection<String> expressions, ParserContext context, Executor executor) {
+    String[] formulas = expressions.toArray(new String[0]);
+    Expression[] built = new Expression[formulas.length];
+    RuntimeException[] errors = new RuntimeException[formulas.length];
+    List<CompletableFuture<Void>> tasks = new ArrayList<>();
+    for (int from = 0; from < formulas.length; from += BUILD_ALL_CHUNK_SIZE) {
+      int start = from;
+      int end = Math.min(from + BUILD_ALL_CHUNK_SIZE, formulas.length);
+      tasks.add(
+          CompletableFuture.runAsync(
+              () -> {
+                for (int i = start; i < end; i++) {
+                  try {
+                    built[i] = new ExpressionBuilder(formulas[i], context).build();
+                  } catch (RuntimeException e) {
+                    errors[i] = e;
+                  }
+                }
+              },
+              executor));
+    }
+    /* joining the tasks makes their writes to the arrays visible */
+    CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+    return new BulkBuildResult(built, errors);
+  }
+
+  /** set the constants' variable names */
+  static void addConstants(Set<String> variableNames) {
     variableNames.add("pi");
     variableNames.add("π");
     variableNames.add("e");
     variableNames.add("φ");
+  }
+
+  /**
+   * Check the variable names and create the table of the declared names. Variables take
+   * precedence over functions, which take precedence over the constants.
+   *
+   * @param variableNames the declared variables, the builtin constants are added if they are
+   *     overridable
+   * @param userFunctions the user functions
+   * @param overridableConstants true to keep the builtin constants as variables instead of
+   *     inlining them
+   * @return the table of the names
+   */
+  static NameTable createNames(
+      Set<String> variableNames, Map<String, Function> userFunctions, boolean overridableConstants) {
+    if (overridableConstants) {
+      addConstants(variableNames);
+    }
+    checkVariableNames(variableNames, userFunctions);
+    NameTable names =
+        new NameTable(
+            variableNames.size()
+                + userFunctions.size()
+                + (overridableConstants ? 0 : Expression.DEFAULT_VARIABLES.size()));
+    if (!overridableConstants) {
+      for (Map.Entry<String, Double> c : Expression.DEFAULT_VARIABLES.entrySet()) {
+        names.put(c.getKey(), c.getValue());
+      }
+    }
+    for (Map.Entry<String, Function> f : userFunctions.entrySet()) {
+      names.put(f.getKey(), f.getValue());
+    }
+    for (String name : variableNames) {
+      names.put(name, name);
+    }
+    return names;
+  }
 
-    /* Check if there are duplicate vars/functions */
+  /** Check if there are duplicate vars/functions */
+  static void checkVariableNames(Set<String> variableNames, Map<String, Function> userFunctions) {
     for (String v : variableNames) {
       if (Functions.getBuiltInFunction(v) != null || userFunctions.containsKey(v)) {
         throw new IllegalArgumentException(
             String.format("A variable can not have the same name as a function [%s]", v));
       }
     }
+  }
+
+  /**
+   * Get the key identifying the expression built by this builder. The key refers to the builder's
+   * current configuration, use {@link Key#snapshot()} before keeping it.
+   */
+  Key key() {
+    if (context != null) {
+      return new Key(expression.toString(), context, implicitMultiplication, scope);
+    }
+    return new Key(
+        expression.toString(),
+        variableNames,
+        userFunctions,
+        userOperators,
+        implicitMultiplication,
+        overridableConstants,
+        scope);
+  }
+
+  /**
+   * The expression text and builder configuration, used as key of an {@link ExpressionCache}.
+   * Builders created from a {@link ParserContext} are identified by the context instead of its
+   * symbols, which saves hashing all of them on every lookup.
+   */
+  static final class Key {
+
+    final String expression;
+
+    private final ParserContext context;
+
+    private final Set<String> variableNames;
+
+    private final Map<String, Function> userFunctions;
+
+    private final Map<String, Operator> userOperators;
+
+    private final boolean implicitMultiplication;
+
+    private final boolean overridableConstants;
+
+    /* scopes are compared by identity, they are immutable and meant to be shared */
+    private final VariableScope scope;
+
+    private final int hash;
+
+    private Key(
+        String expression,
+        ParserContext context,
+        boolean implicitMultiplication,
+        VariableScope scope) {
+      this.expression = expression;
+      this.context = context;
+      this.variableNames = null;
+      this.userFunctions = null;
+      this.userOperators = null;
+      this.implicitMultiplication = implicitMultiplication;
+      this.overridableConstants = context.isOverridableConstants();
+      this.scope = scope;
+      this.hash =
+          Objects.hash(
+              expression,
+              System.identityHashCode(context),
+              implicitMultiplication,
+              System.identityHashCode(scope));
+    }
+
+    private Key(
+        String expression,
+        Set<String> variableNames,
+        Map<String, Function> userFunctions,
+        Map<String, Operator> userOperators,
+        boolean implicitMultiplication,
+        boolean overridableConstants,
+        VariableScope scope) {
+      this.expression = expression;
+      this.context = null;
+      this.variableNames = variableNames;
+      this.userFunctions = userFunctions;
+      this.userOperators = userOperators;
+      this.implicitMultiplication = implicitMultiplication;
+      this.overridableConstants = overridableConstants;
+      this.scope = scope;
+      this.hash =
+          Objects.hash(
+              expression,
+              variableNames,
+              userFunctions,
+              userOperators,
+              implicitMultiplication,
+              overridableConstants,
+              System.identityHashCode(scope));
+    }
+
+    /** Copy the configuration so that later changes to the builder do not affect the key */
+    Key snapshot() {
+      if (context != null) {
+        return this;
+      }
+      return new Key(
+          expression,
+          Collections.unmodifiableSet(new HashSet<>(variableNames)),
+          Collections.unmodifiableMap(new HashMap<>(userFunctions)),
+          Collections.unmodifiableMap(new HashMap<>(userOperators)),
+          implicitMultiplication,
+          overridableConstants,
+          scope);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash
+          && implicitMultiplication == other.implicitMultiplication
+          && overridableConstants == other.overridableConstants
+          && expression.equals(other.expression)
+          && context == other.context
+          && scope == other.scope
+          && Objects.equals(variableNames, other.variableNames)
+          && Objects.equals(userFunctions, other.userFunctions)
+          && Objects.equals(userOperators, other.userOperators);
+    }
 
-    return new Expression(
-        ShuntingYard.convertToRPN(
-            this.expression,
-            this.userFunctions,
-            this.userOperators,
-            this.variableNames,
-            this.implicitMultiplication),
-        this.userFunctions.keySet());
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe cache of built {@link Expression}s, keyed by the expression text together with the
+ * configuration of the {@link ExpressionBuilder}: the declared variables, the functions, the
+ * operators and whether implicit multiplication is enabled.
+ *
+ * <p>Lookups do not lock. The cache is bounded by the estimated size of the cached expressions in
+ * bytes. When it grows beyond that, entries are evicted in insertion order, skipping entries that
+ * have been read since they were last considered (the "second chance" or clock algorithm).
+ *
+ * <p>The cached expressions are never handed out directly. Every lookup returns a copy, which can
+ * be given its own variable values without affecting other users of the same entry.
+ */
+public class ExpressionCache {
+
+  private final long maximumWeight;
+
+  private final ConcurrentHashMap<ExpressionBuilder.Key, Entry> entries =
+      new ConcurrentHashMap<>();
+
+  /* the entries in insertion order, used as the clock for eviction */
+  private final Queue<Entry> clock = new ConcurrentLinkedQueue<>();
+
+  private final AtomicLong weight = new AtomicLong();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  private final Object evictionLock = new Object();
+
+  /**
+   * Create a new cache
+   *
+   * @param maximumWeight the maximum estimated size of all cached expressions in bytes
+   */
+  public ExpressionCache(long maximumWeight) {
+    if (maximumWeight <= 0) {
+      throw new IllegalArgumentException("The maximum weight of the cache must be positive");
+    }
+    this.maximumWeight = maximumWeight;
+  }
+
+  /**
+   * Get the expression described by the given builder, building and caching it if it is not in
+   * the cache yet.
+   *
+   * @param builder the builder containing the expression and its configuration
+   * @return a copy of the cached expression
+   */
+  public Expression get(ExpressionBuilder builder) {
+    ExpressionBuilder.Key key = builder.key();
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      hits.increment();
+      if (!entry.referenced) {
+        entry.referenced = true;
+      }
+      return new Expression(entry.expression);
+    }
+
+    misses.increment();
+    key = key.snapshot();
+    Expression expression = builder.build();
+    entry = new Entry(key, expression, estimateWeight(key, expression));
+    Entry existing = entries.putIfAbsent(key, entry);
+    if (existing != null) {
+      return new Expression(existing.expression);
+    }
+
+    clock.add(entry);
+    if (weight.addAndGet(entry.weight) > maximumWeight) {
+      evict();
+    }
+    return new Expression(expression);
+  }
+
+  private static long estimateWeight(ExpressionBuilder.Key key, Expression expression) {
+    return 2L * key.expression.length() + expression.estimateSize();
+  }
+
+  private void evict() {
+    synchronized (evictionLock) {
+      while (weight.get() > maximumWeight) {
+        Entry entry = clock.poll();
+        if (entry == null) {
+          return;
+        }
+        if (entry.referenced) {
+          entry.referenced = false;
+          clock.add(entry);
+        } else if (entries.remove(entry.key, entry)) {
+          weight.addAndGet(-entry.weight);
+          evictions.increment();
+        }
+      }
+    }
+  }
+
+  /** Remove all entries from the cache. The statistics are kept. */
+  public void clear() {
+    synchronized (evictionLock) {
+      clock.clear();
+      for (Entry entry : entries.values()) {
+        if (entries.remove(entry.key, entry)) {
+          weight.addAndGet(-entry.weight);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the number of cached expressions
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get the estimated size of all cached expressions
+   *
+   * @return the current weight in bytes
+   */
+  public long getWeight() {
+    return weight.get();
+  }
+
+  /**
+   * Get the number of lookups which have been answered from the cache
+   *
+   * @return the number of hits
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of lookups which had to build the expression
+   *
+   * @return the number of misses
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Get the number of expressions which have been evicted to stay within the maximum weight
+   *
+   * @return the number of evictions
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "ExpressionCache{size=%d, weight=%d, hits=%d, misses=%d, evictions=%d}",
+        size(), getWeight(), getHitCount(), getMissCount(), getEvictionCount());
+  }
+
+  private static final class Entry {
+
+    private final ExpressionBuilder.Key key;
+
+    private final Expression expression;
+
+    private final long weight;
+
+    private volatile boolean referenced;
+
+    private Entry(ExpressionBuilder.Key key, Expression expression, long weight) {
+      this.key = key;
+      this.expression = expression;
+      this.weight = weight;
+    }
+  }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.*;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operator1;
+import net.objecthunter.exp4j.operator.Operator2;
+
+/**
+ * A group of expressions evaluated together. Subexpressions which occur in several expressions
+ * of the group, or several times in one expression, are merged into a single node of a DAG and
+ * computed only once per evaluation, e.g. a discount factor used by hundreds of formulas.
+ *
+ * <p>Subexpressions are merged if they are structurally identical: the same constants, variables,
+ * function and operator instances in the same order. Since merged function calls are made only
+ * once, the functions are assumed to be free of side effects.
+ *
+ * <pre>
+ * ExpressionGroup group = ExpressionGroup.of(expressions);
+ * double[][] results = group.evaluate(columns, rows);
+ * </pre>
+ *
+ * <p>Groups are immutable and can be evaluated concurrently.
+ */
+public final class ExpressionGroup {
+
+  /* the distinct nodes, children before their parents */
+  private final Node[] nodes;
+
+  /* the indices of the children of each node in nodes */
+  private final int[][] children;
+
+  /* the index of the root node of each expression in nodes */
+  private final int[] roots;
+
+  private ExpressionGroup(Node[] nodes, int[][] children, int[] roots) {
+    this.nodes = nodes;
+    this.children = children;
+    this.roots = roots;
+  }
+
+  /**
+   * Create a group, sharing the subexpressions within the group only
+   *
+   * @param expressions the expressions
+   * @return the group
+   * @throws IllegalArgumentException if an expression is not valid
+   */
+  public static ExpressionGroup of(Collection<Expression> expressions) {
+    return of(expressions, new SubexpressionTable());
+  }
+
+  /**
+   * Create a group, sharing the subexpressions with all other groups using the same table
+   *
+   * @param expressions the expressions
+   * @param table the table used to share the subexpressions
+   * @return the group
+   * @throws IllegalArgumentException if an expression is not valid
+   */
+  public static ExpressionGroup of(Collection<Expression> expressions, SubexpressionTable table) {
+    Map<Node, Integer> indices = new IdentityHashMap<>();
+    List<Node> nodes = new ArrayList<>();
+    int[] roots = new int[expressions.size()];
+    int i = 0;
+    for (Expression expression : expressions) {
+      /* the children are interned before their parent, so the nodes are in topological order */
+      Node root =
+          Node.of(
+              expression.getProgram(),
+              node -> {
+                Node shared = table.intern(node);
+                if (!indices.containsKey(shared)) {
+                  indices.put(shared, nodes.size());
+                  nodes.add(shared);
+                }
+                return shared;
+              });
+      roots[i++] = indices.get(root);
+    }
+
+    int[][] children = new int[nodes.size()][];
+    for (int n = 0; n < children.length; n++) {
+      Node[] nodeChildren = nodes.get(n).children;
+      children[n] = new int[nodeChildren.length];
+      for (int c = 0; c < nodeChildren.length; c++) {
+        children[n][c] = indices.get(nodeChildren[c]);
+      }
+    }
+    return new ExpressionGroup(nodes.toArray(new Node[0]), children, roots);
+  }
+
+  /**
+   * Get the number of expressions in this group
+   *
+   * @return the number of expressions
+   */
+  public int size() {
+    return roots.length;
+  }
+
+  /**
+   * Get the number of distinct subexpressions, i.e. the number of values computed for each row
+   *
+   * @return the number of nodes
+   */
+  public int getNodeCount() {
+    return nodes.length;
+  }
+
+  /**
+   * Get the names of the variables used by the expressions of this group
+   *
+   * @return the variable names
+   */
+  public Set<String> getVariableNames() {
+    Set<String> names = new HashSet<>();
+    for (Node node : nodes) {
+      if (node.kind == Program.VARIABLE) {
+        names.add(node.name);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Evaluate all expressions for a single set of variable values. The builtin constants like
+   * {@code pi} are used for variables without a value.
+   *
+   * @param variables the variable values by name
+   * @return the results in the order of the expressions
+   * @throws IllegalArgumentException if a variable has no value
+   */
+  public double[] evaluate(Map<String, Double> variables) {
+    double[] values = new double[nodes.length];
+    for (int n = 0; n < nodes.length; n++) {
+      Node node = nodes[n];
+      int[] args = children[n];
+      switch (node.kind) {
+        case Program.CONSTANT:
+          values[n] = node.value;
+          break;
+        case Program.VARIABLE:
+          Double value = variables.get(node.name);
+          values[n] = value == null ? defaultValue(node.name) : value;
+          break;
+        case Program.FUNCTION:
+          double[] arguments = new double[args.length];
+          for (int a = 0; a < args.length; a++) {
+            arguments[a] = values[args[a]];
+          }
+          values[n] = node.function.apply(arguments);
+          break;
+        default:
+          values[n] =
+              args.length == 2
+                  ? node.operator.apply(values[args[0]], values[args[1]])
+                  : node.operator.apply(values[args[0]]);
+          break;
+      }
+    }
+    double[] results = new double[roots.length];
+    for (int i = 0; i < roots.length; i++) {
+      results[i] = values[roots[i]];
+    }
+    return results;
+  }
+
+  /**
+   * Evaluate all expressions for a batch of rows. The values of the variables are passed as
+   * columns, so every distinct subexpression is computed once per row in a tight loop. The
+   * builtin constants like {@code pi} are used for variables without a column.
+   *
+   * @param columns the values of the variables by name, each holding at least {@code rows} values
+   * @param rows the number of rows to evaluate
+   * @return the results, indexed by expression and then by row
+   * @throws IllegalArgumentException if a variable has no column or its column is too short
+   */
+  public double[][] evaluate(Map<String, double[]> columns, int rows) {
+    double[][] values = new double[nodes.length][];
+    /* input columns must not be returned as results */
+    boolean[] shared = new boolean[nodes.length];
+    for (int n = 0; n < nodes.length; n++) {
+      Node node = nodes[n];
+      int[] args = children[n];
+      double[] column;
+      switch (node.kind) {
+        case Program.CONSTANT:
+          column = new double[rows];
+          Arrays.fill(column, node.value);
+          break;
+        case Program.VARIABLE:
+          column = columns.get(node.name);
+          if (column == null) {
+            column = new double[rows];
+            Arrays.fill(column, defaultValue(node.name));
+          } else if (column.length < rows) {
+            throw new IllegalArgumentException(
+                String.format(
+                    "The column of '%s' has %d values, expected %d",
+                    node.name, column.length, rows));
+          } else {
+            shared[n] = true;
+          }
+          break;
+        case Program.FUNCTION:
+          column = apply(node.function, values, args, rows);
+          break;
+        default:
+          column = apply(node.operator, values, args, rows);
+          break;
+      }
+      values[n] = column;
+    }
+
+    double[][] results = new double[roots.length][];
+    for (int i = 0; i < roots.length; i++) {
+      int root = roots[i];
+      results[i] = shared[root] ? Arrays.copyOf(values[root], rows) : values[root];
+      /* expressions with the same root get their own copy */
+      shared[root] = true;
+    }
+    return results;
+  }
+
+  private static double[] apply(Function function, double[][] values, int[] args, int rows) {
+    double[] column = new double[rows];
+    if (args.length == 1 && function instanceof Function1) {
+      Function1 f = (Function1) function;
+      double[] a = values[args[0]];
+      for (int r = 0; r < rows; r++) {
+        column[r] = f.apply(a[r]);
+      }
+      return column;
+    }
+    if (args.length == 2 && function instanceof Function2) {
+      Function2 f = (Function2) function;
+      double[] a = values[args[0]];
+      double[] b = values[args[1]];
+      for (int r = 0; r < rows; r++) {
+        column[r] = f.apply(a[r], b[r]);
+      }
+      return column;
+    }
+    double[] arguments = new double[args.length];
+    for (int r = 0; r < rows; r++) {
+      for (int a = 0; a < args.length; a++) {
+        arguments[a] = values[args[a]][r];
+      }
+      column[r] = function.apply(arguments);
+    }
+    return column;
+  }
+
+  private static double[] apply(Operator operator, double[][] values, int[] args, int rows) {
+    double[] column = new double[rows];
+    double[] left = values[args[0]];
+    if (args.length == 2 && operator instanceof Operator2) {
+      Operator2 op = (Operator2) operator;
+      double[] right = values[args[1]];
+      for (int r = 0; r < rows; r++) {
+        column[r] = op.apply(left[r], right[r]);
+      }
+    } else if (args.length == 2) {
+      double[] right = values[args[1]];
+      for (int r = 0; r < rows; r++) {
+        column[r] = operator.apply(left[r], right[r]);
+      }
+    } else if (operator instanceof Operator1) {
+      Operator1 op = (Operator1) operator;
+      for (int r = 0; r < rows; r++) {
+        column[r] = op.apply(left[r]);
+      }
+    } else {
+      for (int r = 0; r < rows; r++) {
+        column[r] = operator.apply(left[r]);
+      }
+    }
+    return column;
+  }
+
+  private static double defaultValue(String name) {
+    Double value = Expression.DEFAULT_VARIABLES.get(name);
+    if (value == null) {
+      throw new IllegalArgumentException(
+          String.format("No value has been set for the setVariable '%s'.", name));
+    }
+    return value;
+  }
+}
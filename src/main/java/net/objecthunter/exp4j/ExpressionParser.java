@@ -0,0 +1,941 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import net.objecthunter.exp4j.exception.ErrorCode;
+import net.objecthunter.exp4j.exception.ParseFailure;
+import net.objecthunter.exp4j.exception.UnknownFunctionOrVariableException;
+import net.objecthunter.exp4j.function.BinaryFunctionEnum;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.UnaryFunctionEnum;
+import net.objecthunter.exp4j.operator.BinaryOperators;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FastDoubleParser;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.SymbolTrie;
+import net.objecthunter.exp4j.tokenizer.Tokenizer;
+
+/**
+ * Single pass parser compiling an expression directly into a {@link Program}. The lexemes are
+ * read one at a time into fields instead of token objects, and a precedence climbing descent
+ * writes each instruction into the program as soon as its position in reverse polish notation is
+ * known.
+ *
+ * <p>The descent keeps the exact semantics of {@link Tokenizer} followed by {@link
+ * net.objecthunter.exp4j.shuntingyard.ShuntingYard}: each level of recursion stands for one
+ * element of the shunting yard's stack and returns when that element would be popped, so the
+ * program is identical to the one compiled from the tokens of the shunting yard. In particular
+ * malformed expressions like {@code "1 +"} are compiled the same way and left to {@link
+ * Expression#validate(boolean)}; only the errors the shunting yard throws are thrown here.
+ *
+ * <p>Builtin functions and constants are found by walking a static trie while scanning a name,
+ * which needs no allocation. Declared names are compared in place if there are only a few of them,
+ * else looked up in a {@link NameTable}, the one of a {@link ParserContext} or one built from the
+ * builder's variables and functions, with one probe per candidate length and no string created
+ * for the candidates.
+ */
+final class ExpressionParser {
+
+  /* the kinds of lexemes, START before the first one has been read */
+  private static final int START = 0;
+
+  private static final int END = 1;
+
+  private static final int NUMBER = 2;
+
+  private static final int VARIABLE = 3;
+
+  private static final int FUNCTION = 4;
+
+  private static final int OPERATOR = 5;
+
+  private static final int OPEN = 6;
+
+  private static final int CLOSE = 7;
+
+  private static final int SEPARATOR = 8;
+
+  /* the classes of the ASCII chars, others are classified by the methods the table is built from */
+  private static final int DIGIT = 1;
+
+  private static final int NAME_START = 2;
+
+  private static final int NAME_CHAR = 4;
+
+  private static final int WHITESPACE = 8;
+
+  private static final int OPERATOR_CHAR = 16;
+
+  private static final byte[] ASCII_CLASSES = createAsciiClasses();
+
+  /* the tables use a linear search up to this size and an open addressing index beyond */
+  private static final int MAX_LINEAR_LOOKUP = 8;
+
+  private static final long[] NO_CONSTANTS = {};
+
+  private static final SymbolTrie<Object> BUILTIN_FUNCTIONS = createBuiltins(false);
+
+  private static final SymbolTrie<Object> BUILTIN_FUNCTIONS_AND_CONSTANTS = createBuiltins(true);
+
+  /* the expression without leading and trailing whitespace, which positions refer to */
+  private final CharSequence expression;
+
+  /* the number of leading whitespace chars stripped from the expression */
+  private final int stripped;
+
+  /* the chars of the expression, copied once since they are read several times */
+  private final char[] chars;
+
+  private final int length;
+
+  /* the builtin functions, and the named constants unless they are declared as variables */
+  private final SymbolTrie<Object> builtins;
+
+  /* the declared names, or null if the builder's few names below are compared in place */
+  private final NameTable names;
+
+  private final Set<String> variableNames;
+
+  private final Map<String, Function> userFunctions;
+
+  /* the few declared names of a builder, with the function of each or null for variables, copied
+  on the first lookup */
+  private String[] declaredNames;
+
+  private Function[] declaredFunctions;
+
+  private final SymbolTrie<OperatorToken> userOperators;
+
+  private final boolean implicitMultiplication;
+
+  /* throw lightweight ParseFailures instead of the usual exceptions */
+  private final boolean reportFailures;
+
+  private int pos;
+
+  /* the current lexeme */
+  private int kind = START;
+
+  private int start;
+
+  private double value;
+
+  private String name;
+
+  private Function function;
+
+  private Operator operator;
+
+  /* whether the current number is a constant referred to by name, which may be followed by a number */
+  private boolean namedConstant;
+
+  /* the program being written */
+  private final Program.CodeWriter code;
+
+  private int instructions;
+
+  /* the offset of each instruction in the expression, or null if they are not recorded */
+  private int[] offsets;
+
+  private long[] constantBits = NO_CONSTANTS;
+
+  private int numConstants;
+
+  /* the index of each constant plus one at the slot of its hash, or null while the constants are
+  searched linearly */
+  private int[] constantSlots;
+
+  private final Table<String> variableTable = new Table<>(false);
+
+  private final Table<Function> functionTable = new Table<>(true);
+
+  private final Table<Operator> operatorTable = new Table<>(true);
+
+  /**
+   * Create a parser looking names up in the symbol table of a context
+   *
+   * @param expression the expression
+   * @param names the declared functions, variables and named constants
+   * @param userOperators the trie of the user declared operators
+   * @param implicitMultiplication set to false to turn off implicit multiplication
+   * @param reportFailures true to throw {@link ParseFailure}s instead of the usual exceptions
+   */
+  ExpressionParser(
+      CharSequence expression,
+      NameTable names,
+      SymbolTrie<OperatorToken> userOperators,
+      boolean implicitMultiplication,
+      boolean reportFailures) {
+    this(
+        expression,
+        BUILTIN_FUNCTIONS,
+        names,
+        null,
+        null,
+        userOperators,
+        implicitMultiplication,
+        reportFailures);
+  }
+
+  /**
+   * Create a parser looking names up in the symbols of a builder. User declared variables take
+   * precedence over user functions, which take precedence over the named constants.
+   *
+   * @param expression the expression
+   * @param variableNames the declared variables
+   * @param userFunctions the user functions by name
+   * @param inlineConstants true to replace the builtin constants by their values, false if they
+   *     are declared as variables
+   * @param userOperators the trie of the user declared operators
+   * @param implicitMultiplication set to false to turn off implicit multiplication
+   * @param reportFailures true to throw {@link ParseFailure}s instead of the usual exceptions
+   */
+  ExpressionParser(
+      CharSequence expression,
+      Set<String> variableNames,
+      Map<String, Function> userFunctions,
+      boolean inlineConstants,
+      SymbolTrie<OperatorToken> userOperators,
+      boolean implicitMultiplication,
+      boolean reportFailures) {
+    this(
+        expression,
+        inlineConstants ? BUILTIN_FUNCTIONS_AND_CONSTANTS : BUILTIN_FUNCTIONS,
+        variableNames.size() + userFunctions.size() > MAX_LINEAR_LOOKUP
+            ? createNames(variableNames, userFunctions)
+            : null,
+        variableNames,
+        userFunctions,
+        userOperators,
+        implicitMultiplication,
+        reportFailures);
+  }
+
+  private ExpressionParser(
+      CharSequence expression,
+      SymbolTrie<Object> builtins,
+      NameTable names,
+      Set<String> variableNames,
+      Map<String, Function> userFunctions,
+      SymbolTrie<OperatorToken> userOperators,
+      boolean implicitMultiplication,
+      boolean reportFailures) {
+    this.stripped = leadingWhitespace(expression);
+    this.expression = trim(expression, stripped);
+    this.length = this.expression.length();
+    this.chars = toCharArray(this.expression);
+    this.builtins = builtins;
+    this.names = names;
+    this.variableNames = variableNames;
+    this.userFunctions = userFunctions;
+    this.userOperators = userOperators;
+    this.implicitMultiplication = implicitMultiplication;
+    this.reportFailures = reportFailures;
+    /* most expressions have at most one instruction per char */
+    this.code = new Program.CodeWriter(this.length);
+  }
+
+  private static byte[] createAsciiClasses() {
+    byte[] classes = new byte[128];
+    for (char ch = 0; ch < classes.length; ch++) {
+      classes[ch] =
+          (byte)
+              ((Character.isDigit(ch) ? DIGIT : 0)
+                  | (Tokenizer.isAlphabetic(ch) || ch == '_' ? NAME_START : 0)
+                  | (Tokenizer.isVariableOrFunctionCharacter(ch) ? NAME_CHAR : 0)
+                  | (Character.isWhitespace(ch) ? WHITESPACE : 0)
+                  | (Operators.isAllowedOperatorChar(ch) ? OPERATOR_CHAR : 0));
+    }
+    return classes;
+  }
+
+  /* the builtin functions and constants, with values like the ones of a NameTable */
+  private static SymbolTrie<Object> createBuiltins(boolean withConstants) {
+    Map<String, Object> builtins = new HashMap<>();
+    for (Function f : UnaryFunctionEnum.values()) {
+      builtins.put(f.getName(), f);
+    }
+    for (Function f : BinaryFunctionEnum.values()) {
+      builtins.put(f.getName(), f);
+    }
+    if (withConstants) {
+      builtins.putAll(Expression.DEFAULT_VARIABLES);
+    }
+    return SymbolTrie.of(builtins);
+  }
+
+  /* the table of a builder's names, variables take precedence over functions */
+  private static NameTable createNames(
+      Set<String> variableNames, Map<String, Function> userFunctions) {
+    NameTable names = new NameTable(variableNames.size() + userFunctions.size());
+    for (Map.Entry<String, Function> f : userFunctions.entrySet()) {
+      names.put(f.getKey(), f.getValue());
+    }
+    for (String name : variableNames) {
+      names.put(name, name);
+    }
+    return names;
+  }
+
+  /**
+   * Record the offset in the expression of each instruction, see {@link #instructionOffset(int)}
+   *
+   * @return this parser
+   */
+  ExpressionParser recordOffsets() {
+    offsets = new int[Math.max(length, 1)];
+    return this;
+  }
+
+  /**
+   * Get the offset of the char an instruction has been read from, for implicit multiplications
+   * the offset of the following char. Offsets refer to the expression passed to this parser,
+   * including any leading whitespace. Requires {@link #recordOffsets()}.
+   *
+   * @param instruction the index of the instruction, as recorded by {@link
+   *     Expression#validate(ValidationReport, boolean)}
+   * @return the offset, or the end of the expression for the index after the last instruction
+   */
+  int instructionOffset(int instruction) {
+    return instruction < instructions ? stripped + offsets[instruction] : stripped + length;
+  }
+
+  /**
+   * Map a position in the parsed expression, like the one of a {@link ParseFailure}, to the
+   * offset in the expression passed to this parser, which may start with whitespace
+   *
+   * @param position the position after stripping the whitespace
+   * @return the offset
+   */
+  int toExpressionOffset(int position) {
+    return stripped + position;
+  }
+
+  /**
+   * Parse the expression
+   *
+   * @param userFunctionNames the names of the user functions, which can not be used as variables
+   * @return the compiled program
+   * @throws IllegalArgumentException if the expression can not be parsed
+   * @throws ParseFailure if the expression can not be parsed and failures are reported
+   */
+  Program parse(Set<String> userFunctionNames) {
+    advance();
+    parseSequence(null, null, 0);
+    if (kind == SEPARATOR) {
+      throw syntaxError(
+          ErrorCode.MISPLACED_SEPARATOR,
+          "Misplaced function separator ',' or mismatched parentheses");
+    }
+    if (kind == CLOSE) {
+      throw mismatchedParentheses();
+    }
+
+    double[] constants = new double[numConstants];
+    for (int i = 0; i < numConstants; i++) {
+      constants[i] = Double.longBitsToDouble(constantBits[i]);
+    }
+    return new Program(
+        code.toByteArray(),
+        instructions,
+        constants,
+        variableTable.toArray(new String[variableTable.size]),
+        functionTable.toArray(new Function[functionTable.size]),
+        operatorTable.toArray(new Operator[operatorTable.size]),
+        userFunctionNames);
+  }
+
+  /**
+   * Parse the lexemes above an element of the shunting yard's stack until the element would be
+   * popped. Numbers and variables are written right away. An operator which does not pop the
+   * context is pushed: the lexemes above it are parsed recursively and the operator is written
+   * once it is popped.
+   *
+   * @param context the operator on top of the stack, or null if the top is a function, an open
+   *     parenthesis or the bottom of the stack, which operators never pop
+   * @param owner the function on top of the stack, which is written when it is popped, or null
+   * @param ownerOffset the offset of the function
+   */
+  private void parseSequence(Operator context, Function owner, int ownerOffset) {
+    while (true) {
+      switch (kind) {
+        case NUMBER:
+          write(Program.CONSTANT, constantIndex(Double.doubleToRawLongBits(value)), start);
+          advance();
+          break;
+        case VARIABLE:
+          write(Program.VARIABLE, variableTable.indexOf(name), start);
+          advance();
+          break;
+        case OPERATOR:
+          Operator op = operator;
+          if (context != null && pops(op, context)) {
+            return;
+          }
+          int operatorOffset = start;
+          advance();
+          parseSequence(op, null, 0);
+          write(Program.OPERATOR, operatorTable.indexOf(op), operatorOffset);
+          break;
+        case FUNCTION:
+          Function f = function;
+          int functionOffset = start;
+          advance();
+          parseSequence(null, f, functionOffset);
+          break;
+        case OPEN:
+          advance();
+          parseGroup();
+          if (owner != null) {
+            /* the parenthesis was pushed right above the function, which is popped with it */
+            write(Program.FUNCTION, functionTable.indexOf(owner), ownerOffset);
+            return;
+          }
+          break;
+        default:
+          /* separators, closing parentheses and the end pop everything up to a parenthesis */
+          if (owner != null) {
+            write(Program.FUNCTION, functionTable.indexOf(owner), ownerOffset);
+          }
+          return;
+      }
+    }
+  }
+
+  /** Parse the lexemes above an open parenthesis up to and including the closing parenthesis */
+  private void parseGroup() {
+    while (true) {
+      parseSequence(null, null, 0);
+      if (kind == SEPARATOR) {
+        advance();
+      } else if (kind == CLOSE) {
+        advance();
+        return;
+      } else {
+        throw mismatchedParentheses();
+      }
+    }
+  }
+
+  /** Check if an operator pops another one off the shunting yard's stack */
+  private static boolean pops(Operator op, Operator top) {
+    /* a unary operator never pops a binary one */
+    if (op.getNumOperands() == 1 && top.getNumOperands() == 2) {
+      return false;
+    }
+    return op.isLeftAssociative() && op.getPrecedence() <= top.getPrecedence()
+        || op.getPrecedence() < top.getPrecedence();
+  }
+
+  /* constants are told apart by their bits, so that e.g. 0 and -0 are kept */
+  private int constantIndex(long bits) {
+    int slot = 0;
+    if (constantSlots != null) {
+      int mask = constantSlots.length - 1;
+      for (slot = slotOf(hash(bits), mask);
+          constantSlots[slot] != 0;
+          slot = (slot + 1) & mask) {
+        if (constantBits[constantSlots[slot] - 1] == bits) {
+          return constantSlots[slot] - 1;
+        }
+      }
+    } else {
+      for (int i = 0; i < numConstants; i++) {
+        if (constantBits[i] == bits) {
+          return i;
+        }
+      }
+    }
+    if (numConstants == constantBits.length) {
+      constantBits = Arrays.copyOf(constantBits, Math.max(numConstants * 2, 4));
+    }
+    constantBits[numConstants++] = bits;
+    if (constantSlots != null) {
+      constantSlots[slot] = numConstants;
+    }
+    if (numConstants > MAX_LINEAR_LOOKUP
+        && (constantSlots == null || numConstants * 2 > constantSlots.length)) {
+      constantSlots = new int[Integer.highestOneBit(numConstants) * 4];
+      int mask = constantSlots.length - 1;
+      for (int i = 0; i < numConstants; i++) {
+        slot = slotOf(hash(constantBits[i]), mask);
+        while (constantSlots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        constantSlots[slot] = i + 1;
+      }
+    }
+    return numConstants - 1;
+  }
+
+  /* the bits of most constants end with zeros, so they are mixed into the high half of the hash */
+  private static int hash(long bits) {
+    return (int) ((bits * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  private static int slotOf(int hash, int mask) {
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+
+  private void write(int opcode, int index, int offset) {
+    code.write(opcode, index);
+    if (offsets != null) {
+      if (instructions == offsets.length) {
+        offsets = Arrays.copyOf(offsets, instructions * 2);
+      }
+      offsets[instructions] = offset;
+    }
+    instructions++;
+  }
+
+  /**
+   * Read the next lexeme, following the rules of the {@link Tokenizer}: the kind of the previous
+   * lexeme decides whether an implicit multiplication is inserted and whether {@code +} and
+   * {@code -} are unary.
+   */
+  private void advance() {
+    int last = kind;
+    /* only the lexeme directly after a named constant may be a number */
+    boolean afterNamedConstant = namedConstant;
+    namedConstant = false;
+
+    while (pos < length && isWhitespace(chars[pos])) {
+      pos++;
+    }
+    start = pos;
+    if (pos == length) {
+      kind = END;
+      return;
+    }
+
+    char ch = chars[pos];
+    if (isDigit(ch) || ch == '.') {
+      if (last != START) {
+        if (last == NUMBER && !afterNamedConstant) {
+          throw invalidCharacter(ch);
+        }
+        if (implicitMultiplicationAfter(last)) {
+          setOperator(BinaryOperators.MULTIPLICATION);
+          return;
+        }
+      }
+      readNumber();
+    } else if (ch == ',') {
+      pos++;
+      kind = SEPARATOR;
+    } else if (ch == '(' || ch == '{' || ch == '[') {
+      if (last != START && implicitMultiplicationAfter(last)) {
+        setOperator(BinaryOperators.MULTIPLICATION);
+        return;
+      }
+      pos++;
+      kind = OPEN;
+    } else if (ch == ')' || ch == '}' || ch == ']') {
+      pos++;
+      kind = CLOSE;
+    } else if (is(ch, OPERATOR_CHAR)) {
+      readOperator(ch, last);
+    } else if (is(ch, NAME_START)) {
+      if (last != START && implicitMultiplicationAfter(last)) {
+        setOperator(BinaryOperators.MULTIPLICATION);
+        return;
+      }
+      readName();
+    } else {
+      throw invalidCharacter(ch);
+    }
+  }
+
+  private static boolean isWhitespace(char ch) {
+    return ch < ASCII_CLASSES.length
+        ? (ASCII_CLASSES[ch] & WHITESPACE) != 0
+        : Character.isWhitespace(ch);
+  }
+
+  private static boolean isDigit(char ch) {
+    return ch < ASCII_CLASSES.length ? (ASCII_CLASSES[ch] & DIGIT) != 0 : Character.isDigit(ch);
+  }
+
+  /* check the class of a char, which is always looked up in the table for ASCII chars */
+  private static boolean is(char ch, int charClass) {
+    if (ch < ASCII_CLASSES.length) {
+      return (ASCII_CLASSES[ch] & charClass) != 0;
+    }
+    switch (charClass) {
+      case NAME_START:
+        return Tokenizer.isAlphabetic(ch);
+      case NAME_CHAR:
+        return Tokenizer.isVariableOrFunctionCharacter(ch);
+      default:
+        return Operators.isAllowedOperatorChar(ch);
+    }
+  }
+
+  private boolean implicitMultiplicationAfter(int last) {
+    return implicitMultiplication
+        && last != OPERATOR
+        && last != OPEN
+        && last != FUNCTION
+        && last != SEPARATOR;
+  }
+
+  private void setOperator(Operator op) {
+    kind = OPERATOR;
+    operator = op;
+  }
+
+  private void readNumber() {
+    int offset = pos;
+    int len = 1;
+    pos++;
+    while (pos < length
+        && isNumeric(chars[pos], isExponent(chars[pos - 1]))) {
+      len++;
+      pos++;
+    }
+    /* an e at the end is not part of the number */
+    if (isExponent(chars[pos - 1])) {
+      len--;
+      pos--;
+    }
+    try {
+      value = FastDoubleParser.parseDouble(expression, offset, len);
+    } catch (NumberFormatException e) {
+      if (reportFailures) {
+        throw new ParseFailure(ErrorCode.INVALID_NUMBER, expression, offset, len);
+      }
+      throw e;
+    }
+    kind = NUMBER;
+  }
+
+  private static boolean isExponent(char ch) {
+    return ch == 'e' || ch == 'E';
+  }
+
+  private static boolean isNumeric(char ch, boolean lastCharE) {
+    return isDigit(ch)
+        || ch == '.'
+        || ch == 'e'
+        || ch == 'E'
+        || (lastCharE && (ch == '-' || ch == '+'));
+  }
+
+  private void readOperator(char firstChar, int last) {
+    /* greedily match the longest user operator symbol */
+    int testPos = pos;
+    int lastValidLen = 0;
+    OperatorToken lastValid = null;
+    SymbolTrie<OperatorToken> node = userOperators;
+    while (node != null
+        && testPos < length
+        && is(chars[testPos], OPERATOR_CHAR)) {
+      node = node.child(chars[testPos++]);
+      if (node != null && node.getValue() != null) {
+        lastValid = node.getValue();
+        lastValidLen = testPos - pos;
+      }
+    }
+
+    Operator op;
+    if (lastValid != null) {
+      op = lastValid.getOperator();
+    } else {
+      op = Operators.getBuiltinOperator(firstChar, isUnaryPosition(last) ? 1 : 2);
+      if (op == null) {
+        if (reportFailures) {
+          throw new ParseFailure(ErrorCode.UNKNOWN_OPERATOR, expression, pos, 1);
+        }
+        throw new IllegalArgumentException("Operator is unknown for token");
+      }
+      lastValidLen = 1;
+    }
+    pos += lastValidLen;
+    setOperator(op);
+  }
+
+  /** Check if a builtin operator following a lexeme of the given kind is unary */
+  private boolean isUnaryPosition(int last) {
+    if (last == START || last == OPEN || last == SEPARATOR) {
+      return true;
+    }
+    /* the operator field still holds the previous operator */
+    return last == OPERATOR
+        && (operator.getNumOperands() == 2
+            || operator.getNumOperands() == 1 && !operator.isLeftAssociative());
+  }
+
+  private void readName() {
+    int offset = pos;
+    int end = offset;
+    /* the longest builtin and the hash of the longest candidate for a declared name are found
+    while scanning the name, without creating a string */
+    Object builtin = null;
+    int builtinLen = 0;
+    SymbolTrie<Object> node = builtins;
+    int hash = 0;
+    int hashEnd = names != null ? offset + names.getMaxNameLength() : offset;
+    char ch;
+    while (end < length && is(ch = chars[end], NAME_CHAR)) {
+      if (node != null) {
+        node = node.child(ch);
+        if (node != null && node.getValue() != null) {
+          builtin = node.getValue();
+          builtinLen = end + 1 - offset;
+        }
+      }
+      if (end < hashEnd) {
+        hash = 31 * hash + ch;
+      }
+      end++;
+    }
+    int len =
+        names != null
+            ? lookupDeclaredNames(offset, Math.min(end, hashEnd), hash, builtinLen)
+            : compareDeclaredNames(offset, end, builtinLen);
+    if (len == 0 && builtin != null) {
+      setName(builtin);
+      len = builtinLen;
+    }
+    if (len == 0) {
+      if (reportFailures) {
+        throw new ParseFailure(
+            ErrorCode.UNKNOWN_FUNCTION_OR_VARIABLE, expression, offset, Math.max(end - offset, 1));
+      }
+      throw new UnknownFunctionOrVariableException(
+          expression.toString(), offset, Math.max(end - offset, 1) + 1);
+    }
+    pos = offset + len;
+  }
+
+  private void copyDeclaredNames() {
+    declaredNames = new String[variableNames.size() + userFunctions.size()];
+    declaredFunctions = new Function[declaredNames.length];
+    int i = 0;
+    for (String variable : variableNames) {
+      declaredNames[i++] = variable;
+    }
+    for (Map.Entry<String, Function> f : userFunctions.entrySet()) {
+      declaredNames[i] = f.getKey();
+      declaredFunctions[i++] = f.getValue();
+    }
+  }
+
+  /**
+   * Find the longest of the few declared names at the offset by comparing them in place. Declared
+   * names win over builtins of the same length.
+   *
+   * @return the length of the name or 0 if there is none at least as long as minLen
+   */
+  private int compareDeclaredNames(int offset, int end, int minLen) {
+    if (declaredNames == null) {
+      copyDeclaredNames();
+    }
+    int match = -1;
+    int matchLen = 0;
+    for (int i = 0; i < declaredNames.length; i++) {
+      String declared = declaredNames[i];
+      int len = declared.length();
+      if (len >= minLen && len > matchLen && len <= end - offset && matches(declared, offset)) {
+        match = i;
+        matchLen = len;
+      }
+    }
+    if (match >= 0) {
+      if (declaredFunctions[match] == null) {
+        kind = VARIABLE;
+        name = declaredNames[match];
+      } else {
+        kind = FUNCTION;
+        function = declaredFunctions[match];
+      }
+    }
+    return matchLen;
+  }
+
+  private boolean matches(String declared, int offset) {
+    for (int i = 0; i < declared.length(); i++) {
+      if (chars[offset + i] != declared.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find the longest declared name at the offset in the table, trying the candidates from the
+   * longest to the shortest. Declared names win over builtins of the same length.
+   *
+   * @param end the end of the longest candidate
+   * @param hash the hash of the longest candidate
+   * @return the length of the name or 0 if there is none at least as long as minLen
+   */
+  private int lookupDeclaredNames(int offset, int end, int hash, int minLen) {
+    for (int len = end - offset; len >= Math.max(minLen, 1); len--) {
+      Object declared = names.get(chars, offset, len, hash);
+      if (declared != null) {
+        setName(declared);
+        return len;
+      }
+      hash = NameTable.prefixHash(hash, chars[offset + len - 1]);
+    }
+    return 0;
+  }
+
+  /* set the current lexeme to a name's value from a NameTable or the builtins */
+  private void setName(Object value) {
+    if (value instanceof String) {
+      kind = VARIABLE;
+      /* the context's instance of the name is shared by all of its expressions */
+      name = (String) value;
+    } else if (value instanceof Function) {
+      kind = FUNCTION;
+      function = (Function) value;
+    } else {
+      kind = NUMBER;
+      this.value = (Double) value;
+      namedConstant = true;
+    }
+  }
+
+  private RuntimeException syntaxError(ErrorCode code, String message) {
+    return reportFailures
+        ? new ParseFailure(code, expression, Math.max(pos - 1, 0), 0)
+        : new IllegalArgumentException(message);
+  }
+
+  private RuntimeException mismatchedParentheses() {
+    return syntaxError(
+        ErrorCode.MISMATCHED_PARENTHESES,
+        "Mismatched parentheses detected. Please check the expression");
+  }
+
+  private RuntimeException invalidCharacter(char ch) {
+    return reportFailures
+        ? new ParseFailure(ErrorCode.INVALID_CHARACTER, expression, pos, 1)
+        : new IllegalArgumentException(
+            String.format("Unable to parse char '%s' (Code:%s) at [%s]", ch, ch, pos));
+  }
+
+  private static int leadingWhitespace(CharSequence expression) {
+    int start = 0;
+    while (start < expression.length() && expression.charAt(start) <= ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  /**
+   * Strip leading and trailing whitespace like {@link String#trim()} does, but without copying
+   * the chars when there is nothing to strip
+   *
+   * @param start the number of leading whitespace chars
+   */
+  private static CharSequence trim(CharSequence expression, int start) {
+    int end = expression.length();
+    while (end > start && expression.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return start == 0 && end == expression.length()
+        ? expression
+        : expression.subSequence(start, end);
+  }
+
+  private static char[] toCharArray(CharSequence expression) {
+    if (expression instanceof String) {
+      return ((String) expression).toCharArray();
+    }
+    char[] chars = new char[expression.length()];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = expression.charAt(i);
+    }
+    return chars;
+  }
+
+  /** The distinct entries of a table of the program in the order of their first use */
+  private static final class Table<K> {
+
+    private static final Object[] EMPTY = {};
+
+    private final boolean identity;
+
+    /* kept untyped, so that adding a key needs no array store check */
+    private Object[] keys = EMPTY;
+
+    private int size;
+
+    /* the index of each key plus one at the slot of its hash, or null while the keys are searched
+    linearly */
+    private int[] slots;
+
+    Table(boolean identity) {
+      this.identity = identity;
+    }
+
+    int indexOf(K key) {
+      int slot = 0;
+      if (slots != null) {
+        int mask = slots.length - 1;
+        for (slot = slotOf(hash(key), mask); slots[slot] != 0; slot = (slot + 1) & mask) {
+          Object k = keys[slots[slot] - 1];
+          if (k == key || !identity && k.equals(key)) {
+            return slots[slot] - 1;
+          }
+        }
+      } else {
+        for (int i = 0; i < size; i++) {
+          if (keys[i] == key || !identity && keys[i].equals(key)) {
+            return i;
+          }
+        }
+      }
+      if (size == keys.length) {
+        keys = size == 0 ? new Object[4] : Arrays.copyOf(keys, size * 2);
+      }
+      keys[size++] = key;
+      if (slots != null) {
+        slots[slot] = size;
+      }
+      if (size > MAX_LINEAR_LOOKUP && (slots == null || size * 2 > slots.length)) {
+        slots = new int[Integer.highestOneBit(size) * 4];
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+          slot = slotOf(hash(keys[i]), mask);
+          while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          slots[slot] = i + 1;
+        }
+      }
+      return size - 1;
+    }
+
+    private int hash(Object key) {
+      return identity ? System.identityHashCode(key) : key.hashCode();
+    }
+
+    K[] toArray(K[] array) {
+      System.arraycopy(keys, 0, array, 0, size);
+      return array;
+    }
+  }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+/**
+ * Reads and writes built {@link Expression}s in a compact binary format, so that they can be
+ * loaded without tokenizing them again.
+ *
+ * <p>A file starts with the magic bytes {@code EXP4}, the format version and the number of
+ * expressions, all as big endian ints. Each expression is written as its length in bytes followed
+ * by a constant pool, the variable names, the referenced functions (name and number of
+ * arguments), the referenced operators (symbol and number of operands) and the instructions in
+ * reverse polish notation. Each instruction is an opcode byte followed by the index into the
+ * respective table. Counts and indices are unsigned varints and strings are UTF-8 prefixed with
+ * their length.
+ *
+ * <p>Functions and operators are stored by name only. When loading, they are resolved against a
+ * {@link ParserContext} and the builtin functions and operators, and references that can not be
+ * resolved are reported right away.
+ */
+public final class ExpressionSerializer {
+
+  /** The magic bytes "EXP4" */
+  private static final int MAGIC = 0x45585034;
+
+  /** The current version of the format */
+  public static final int VERSION = 1;
+
+  private static final byte OP_CONSTANT = Program.CONSTANT;
+
+  private static final byte OP_VARIABLE = Program.VARIABLE;
+
+  private static final byte OP_FUNCTION = Program.FUNCTION;
+
+  private static final byte OP_OPERATOR = Program.OPERATOR;
+
+  private ExpressionSerializer() {
+    throw new UnsupportedOperationException("Utility class should not be instantiated");
+  }
+
+  /**
+   * Write expressions to a file
+   *
+   * @param expressions the expressions to write
+   * @param file the file to write to, an existing file is replaced
+   * @throws IOException if the file can not be written
+   */
+  public static void write(Collection<Expression> expressions, Path file) throws IOException {
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+      write(expressions, out);
+    }
+  }
+
+  /**
+   * Write expressions to a stream
+   *
+   * @param expressions the expressions to write
+   * @param out the stream to write to, it is not closed
+   * @throws IOException if the stream can not be written
+   */
+  public static void write(Collection<Expression> expressions, OutputStream out)
+      throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(expressions.size());
+    ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    for (Expression expression : expressions) {
+      record.reset();
+      writeExpression(expression, new DataOutputStream(record));
+      data.writeInt(record.size());
+      record.writeTo(data);
+    }
+    data.flush();
+  }
+
+  private static void writeExpression(Expression expression, DataOutputStream out)
+      throws IOException {
+    Program program = expression.getProgram();
+    writeVarInt(out, program.constants.length);
+    for (double constant : program.constants) {
+      out.writeLong(Double.doubleToRawLongBits(constant));
+    }
+    writeVarInt(out, program.variables.length);
+    for (String name : program.variables) {
+      writeString(out, name);
+    }
+    writeVarInt(out, program.functions.length);
+    for (Function function : program.functions) {
+      writeString(out, function.getName());
+      writeVarInt(out, function.getNumArguments());
+    }
+    writeVarInt(out, program.operators.length);
+    for (Operator operator : program.operators) {
+      writeString(out, operator.getSymbol());
+      writeVarInt(out, operator.getNumOperands());
+    }
+    writeVarInt(out, program.length);
+    byte[] code = program.code;
+    for (int pc = 0; pc < code.length; ) {
+      int instruction = code[pc++];
+      int index = instruction & Program.INDEX_MASK;
+      if (index == Program.WIDE_INDEX) {
+        index = Program.wideIndex(code, pc);
+        pc += 3;
+      }
+      writeInstruction(out, (byte) (instruction >> Program.OPCODE_SHIFT & 3), index);
+    }
+  }
+
+  private static void writeInstruction(OutputStream out, byte opcode, int index)
+      throws IOException {
+    out.write(opcode);
+    writeVarInt(out, index);
+  }
+
+  private static void writeVarInt(OutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static void writeString(OutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read the expressions of a file. The file is memory mapped and decoded in place.
+   *
+   * @param file the file written by {@link #write(Collection, Path)}
+   * @param context the context to resolve the user functions and operators with
+   * @return the expressions in the order they have been written
+   * @throws IOException if the file can not be read
+   * @throws IllegalArgumentException if the file is malformed or references unknown functions or
+   *     operators
+   */
+  public static List<Expression> read(Path file, ParserContext context) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), context);
+    }
+  }
+
+  /**
+   * Read expressions from a buffer, e.g. a {@link java.nio.MappedByteBuffer}. The buffer's
+   * position is advanced past the expressions.
+   *
+   * @param buffer the buffer containing the data written by {@link #write(Collection,
+   *     OutputStream)}
+   * @param context the context to resolve the user functions and operators with
+   * @return the expressions in the order they have been written
+   * @throws IllegalArgumentException if the data is malformed or references unknown functions or
+   *     operators
+   */
+  public static List<Expression> read(ByteBuffer buffer, ParserContext context) {
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IllegalArgumentException("Not a serialized expression file");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IllegalArgumentException(
+            String.format("Unsupported serialization version %d, expected %d", version, VERSION));
+      }
+      /* every expression is preceded by its length */
+      int count = checkCount(buffer, buffer.getInt(), Integer.BYTES, buffer.position() - 4);
+      List<Expression> expressions = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int length = checkCount(buffer, buffer.getInt(), 1, buffer.position() - 4);
+        int end = buffer.position() + length;
+        expressions.add(readExpression(buffer, context, i));
+        if (buffer.position() != end) {
+          throw new IllegalArgumentException(
+              String.format("Serialized expression #%d has an invalid length", i));
+        }
+      }
+      return expressions;
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated serialized expression data", e);
+    }
+  }
+
+  private static Expression readExpression(ByteBuffer in, ParserContext context, int number) {
+    double[] constants = new double[readCount(in, Double.BYTES)];
+    for (int i = 0; i < constants.length; i++) {
+      constants[i] = Double.longBitsToDouble(in.getLong());
+    }
+    /* names are at least a length byte, functions and operators add the number of operands */
+    String[] variables = new String[readCount(in, 1)];
+    for (int i = 0; i < variables.length; i++) {
+      variables[i] = internVariableName(readString(in), context);
+    }
+    Function[] functions = new Function[readCount(in, 2)];
+    for (int i = 0; i < functions.length; i++) {
+      functions[i] = resolveFunction(readString(in), readVarInt(in), context, number);
+    }
+    Operator[] operators = new Operator[readCount(in, 2)];
+    for (int i = 0; i < operators.length; i++) {
+      operators[i] = resolveOperator(readString(in), readVarInt(in), context, number);
+    }
+
+    /* an instruction is an opcode followed by its operand */
+    int numInstructions = readCount(in, 2);
+    Program.CodeWriter code = new Program.CodeWriter(numInstructions);
+    for (int i = 0; i < numInstructions; i++) {
+      byte opcode = in.get();
+      int offset = in.position();
+      int index = readVarInt(in);
+      int tableSize;
+      switch (opcode) {
+        case OP_CONSTANT:
+          tableSize = constants.length;
+          break;
+        case OP_VARIABLE:
+          tableSize = variables.length;
+          break;
+        case OP_FUNCTION:
+          tableSize = functions.length;
+          break;
+        case OP_OPERATOR:
+          tableSize = operators.length;
+          break;
+        default:
+          throw new IllegalArgumentException(
+              String.format("Invalid opcode %d in serialized expression #%d", opcode, number));
+      }
+      if (index >= tableSize) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Invalid operand %d at offset %d in serialized expression #%d",
+                index, offset, number));
+      }
+      code.write(opcode, index);
+    }
+    return new Expression(
+        new Program(
+            code.toByteArray(),
+            numInstructions,
+            constants,
+            variables,
+            functions,
+            operators,
+            context.getFunctions().keySet()));
+  }
+
+  /**
+   * Use the name instance of the context for variables declared in the context, so that the
+   * loaded expressions do not hold a copy of the name each
+   */
+  private static String internVariableName(String name, ParserContext context) {
+    Object declared = context.getNames().get(name);
+    return declared instanceof String ? (String) declared : name;
+  }
+
+  private static Function resolveFunction(
+      String name, int numArguments, ParserContext context, int number) {
+    Function function = context.getFunctions().get(name);
+    if (function == null) {
+      function = Functions.getBuiltInFunction(name);
+    }
+    if (function == null) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Unknown function '%s' referenced by serialized expression #%d", name, number));
+    }
+    if (function.getNumArguments() != numArguments) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Function '%s' takes %d arguments, but serialized expression #%d expects %d",
+              name, function.getNumArguments(), number, numArguments));
+    }
+    return function;
+  }
+
+  private static Operator resolveOperator(
+      String symbol, int numOperands, ParserContext context, int number) {
+    Operator operator = context.getOperators().get(symbol);
+    if (operator == null && symbol.length() == 1) {
+      operator = Operators.getBuiltinOperator(symbol.charAt(0), numOperands);
+    }
+    if (operator == null || operator.getNumOperands() != numOperands) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Unknown operator '%s' with %d operands referenced by serialized expression #%d",
+              symbol, numOperands, number));
+    }
+    return operator;
+  }
+
+  /**
+   * Read the number of entries of a table, which can not be larger than the remaining data
+   *
+   * @param minBytes the minimum number of bytes each entry takes
+   */
+  private static int readCount(ByteBuffer in, int minBytes) {
+    int offset = in.position();
+    return checkCount(in, readVarInt(in), minBytes, offset);
+  }
+
+  private static int checkCount(ByteBuffer in, int count, int minBytes, int offset) {
+    if (count < 0 || count > in.remaining() / minBytes) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Invalid count %d at offset %d in serialized expression data", count, offset));
+    }
+    return count;
+  }
+
+  /** Read a non negative variable length int */
+  private static int readVarInt(ByteBuffer in) {
+    int offset = in.position();
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new IllegalArgumentException(
+        String.format("Malformed varint at offset %d in serialized expression data", offset));
+  }
+
+  private static String readString(ByteBuffer in) {
+    byte[] bytes = new byte[readCount(in, 1)];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
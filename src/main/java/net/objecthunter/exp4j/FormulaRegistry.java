@@ -0,0 +1,278 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Registry mapping formula ids to compiled expressions, which can be changed while it is used.
+ * The formulas are held in an immutable {@link Snapshot}; changes publish a new snapshot with a
+ * single atomic swap, so reads never block and never see a partially applied change.
+ *
+ * <pre>
+ * FormulaRegistry registry = new FormulaRegistry();
+ * registry.publish("net", context.expression("gross * (1 - tax)").build());
+ * double net = registry.get("net").setVariables(row).evaluate();
+ * </pre>
+ *
+ * <p>A snapshot stays valid as long as it is referenced, e.g. to evaluate several formulas of
+ * the same version; old versions are reclaimed by the garbage collector once no evaluation uses
+ * them anymore.
+ */
+public final class FormulaRegistry {
+
+  /** The suffix of the files read by {@link #reload(Path, ParserContext)} */
+  public static final String FILE_SUFFIX = ".exp";
+
+  private final AtomicReference<Snapshot> current =
+      new AtomicReference<>(new Snapshot(0L, Collections.emptyMap()));
+
+  /**
+   * Get the current version of the formulas
+   *
+   * @return the snapshot
+   */
+  public Snapshot snapshot() {
+    return current.get();
+  }
+
+  /**
+   * Get a copy of the current version of a formula, see {@link Snapshot#get(String)}
+   *
+   * @param id the id of the formula
+   * @return the expression or null if there is no formula with this id
+   */
+  public Expression get(String id) {
+    return current.get().get(id);
+  }
+
+  /**
+   * Publish a new version of a formula
+   *
+   * @param id the id of the formula
+   * @param expression the expression, which is copied
+   * @return the version of the formulas including the change
+   */
+  public long publish(String id, Expression expression) {
+    return publishAll(Collections.singletonMap(id, expression));
+  }
+
+  /**
+   * Publish new versions of several formulas at once. Readers see either all or none of them.
+   *
+   * @param expressions the expressions by formula id, which are copied
+   * @return the version of the formulas including the change
+   */
+  public long publishAll(Map<String, Expression> expressions) {
+    Map<String, Expression> copies = copy(expressions);
+    return update(
+        formulas -> {
+          Map<String, Expression> next = new HashMap<>(formulas);
+          next.putAll(copies);
+          return next;
+        });
+  }
+
+  /**
+   * Remove a formula
+   *
+   * @param id the id of the formula
+   * @return the version of the formulas including the change
+   */
+  public long remove(String id) {
+    return update(
+        formulas -> {
+          Map<String, Expression> next = new HashMap<>(formulas);
+          next.remove(id);
+          return next;
+        });
+  }
+
+  /**
+   * Replace all formulas at once. Readers see either the old or the new set.
+   *
+   * @param expressions the expressions by formula id, which are copied
+   * @return the version of the new formulas
+   */
+  public long replaceAll(Map<String, Expression> expressions) {
+    Map<String, Expression> copies = copy(expressions);
+    return update(formulas -> copies);
+  }
+
+  private static Map<String, Expression> copy(Map<String, Expression> expressions) {
+    Map<String, Expression> copies = new HashMap<>(expressions.size() * 2);
+    for (Map.Entry<String, Expression> e : expressions.entrySet()) {
+      copies.put(
+          Objects.requireNonNull(e.getKey(), "id"),
+          new Expression(Objects.requireNonNull(e.getValue(), "expression")));
+    }
+    return copies;
+  }
+
+  private long update(UnaryOperator<Map<String, Expression>> change) {
+    Snapshot previous;
+    Snapshot next;
+    do {
+      previous = current.get();
+      next =
+          new Snapshot(
+              previous.version + 1, Collections.unmodifiableMap(change.apply(previous.formulas)));
+    } while (!current.compareAndSet(previous, next));
+    return next.version;
+  }
+
+  /**
+   * Replace all formulas with the formulas stored in a directory. Each file ending in {@link
+   * #FILE_SUFFIX} holds a single formula, whose id is the file name without the suffix. If a
+   * formula can not be read or parsed, the registry is left unchanged.
+   *
+   * @param directory the directory of the formulas
+   * @param context the context providing the functions, operators and variables
+   * @return the version of the new formulas
+   * @throws IOException if the directory or a file can not be read
+   * @throws IllegalArgumentException if a formula can not be parsed
+   */
+  public long reload(Path directory, ParserContext context) throws IOException {
+    Map<String, Expression> formulas = new HashMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+      for (Path file : files) {
+        if (!Files.isRegularFile(file)) {
+          continue;
+        }
+        String name = file.getFileName().toString();
+        String id = name.substring(0, name.length() - FILE_SUFFIX.length());
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        try {
+          formulas.put(id, context.expression(text).build());
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException(
+              String.format("Unable to parse the formula '%s': %s", id, e.getMessage()), e);
+        }
+      }
+    }
+    return update(previous -> formulas);
+  }
+
+  /**
+   * Load the formulas stored in a directory and reload them whenever a file of the directory is
+   * created, modified or deleted, see {@link #reload(Path, ParserContext)}. The directory is
+   * watched by a daemon thread until the returned handle is closed. Formulas which can not be
+   * reloaded are passed to the error handler and the previous version stays in use.
+   *
+   * @param directory the directory of the formulas
+   * @param context the context providing the functions, operators and variables
+   * @param errorHandler called with the exception if a reload fails
+   * @return the handle stopping the watch when closed
+   * @throws IOException if the directory can not be read or watched
+   * @throws IllegalArgumentException if a formula can not be parsed initially
+   */
+  public Closeable watch(Path directory, ParserContext context, Consumer<Exception> errorHandler)
+      throws IOException {
+    WatchService service = directory.getFileSystem().newWatchService();
+    try {
+      directory.register(
+          service,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+      reload(directory, context);
+    } catch (IOException | RuntimeException e) {
+      service.close();
+      throw e;
+    }
+
+    Thread watcher =
+        new Thread(
+            () -> {
+              try {
+                WatchKey key;
+                do {
+                  key = service.take();
+                  /* a single reload covers all pending events */
+                  key.pollEvents();
+                  try {
+                    reload(directory, context);
+                  } catch (IOException | RuntimeException e) {
+                    errorHandler.accept(e);
+                  }
+                } while (key.reset());
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              } catch (ClosedWatchServiceException e) {
+                /* the handle has been closed */
+              }
+            },
+            "exp4j-formula-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+    return service::close;
+  }
+
+  /** Immutable version of the formulas of a {@link FormulaRegistry} */
+  public static final class Snapshot {
+
+    private final long version;
+
+    private final Map<String, Expression> formulas;
+
+    private Snapshot(long version, Map<String, Expression> formulas) {
+      this.version = version;
+      this.formulas = formulas;
+    }
+
+    /**
+     * Get the version, which is incremented by every change of the registry
+     *
+     * @return the version
+     */
+    public long getVersion() {
+      return version;
+    }
+
+    /**
+     * Get the ids of the formulas
+     *
+     * @return an unmodifiable set of the ids
+     */
+    public Set<String> getIds() {
+      return formulas.keySet();
+    }
+
+    /**
+     * Get a copy of a formula, whose variables can be set without affecting other readers. The
+     * copy shares the compiled program, see {@link Expression#Expression(Expression)}.
+     *
+     * @param id the id of the formula
+     * @return the expression or null if there is no formula with this id
+     */
+    public Expression get(String id) {
+      Expression expression = formulas.get(id);
+      return expression == null ? null : new Expression(expression);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Snapshot{version=%d, ids=%s}", version, formulas.keySet());
+    }
+  }
+}
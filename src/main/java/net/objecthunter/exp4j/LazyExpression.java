@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Handle for an expression which is parsed on first use, created by {@link
+ * ExpressionBuilder#buildLazy()}. Parsing happens at most once, even if the handle is used by
+ * several threads at the same time. If the expression can not be parsed, the error is kept and
+ * reported by {@link #validate()} and thrown by every call to {@link #get()}.
+ */
+public final class LazyExpression {
+
+  /* the number of expressions parsed by a single task of preparseAll */
+  private static final int PREPARSE_CHUNK_SIZE = 256;
+
+  private final String expression;
+
+  /* the private copy of the builder, released once parsed */
+  private ExpressionBuilder builder;
+
+  /* the parsed Expression or the RuntimeException thrown by the parser */
+  private volatile Object result;
+
+  LazyExpression(String expression, ExpressionBuilder builder) {
+    this.expression = expression;
+    this.builder = builder;
+  }
+
+  /**
+   * Parse all expressions which have not been parsed yet in the background
+   *
+   * @param expressions the expressions to parse
+   * @param executor the executor running the parser, the expressions are split into chunks
+   * @return a future completing when all expressions have been parsed, regardless of parse errors
+   */
+  public static CompletableFuture<Void> preparseAll(
+      Collection<LazyExpression> expressions, Executor executor) {
+    List<LazyExpression> list = new ArrayList<>(expressions);
+    List<CompletableFuture<Void>> tasks = new ArrayList<>();
+    for (int from = 0; from < list.size(); from += PREPARSE_CHUNK_SIZE) {
+      List<LazyExpression> chunk =
+          list.subList(from, Math.min(from + PREPARSE_CHUNK_SIZE, list.size()));
+      tasks.add(
+          CompletableFuture.runAsync(
+              () -> {
+                for (LazyExpression e : chunk) {
+                  e.parse();
+                }
+              },
+              executor));
+    }
+    return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]));
+  }
+
+  private Object parse() {
+    Object parsed = result;
+    if (parsed == null) {
+      synchronized (this) {
+        parsed = result;
+        if (parsed == null) {
+          try {
+            parsed = builder.build();
+          } catch (RuntimeException e) {
+            parsed = e;
+          }
+          builder = null;
+          result = parsed;
+        }
+      }
+    }
+    return parsed;
+  }
+
+  /**
+   * Get the expression, parsing it if that has not happened yet. Each call returns a new copy,
+   * so the variables can be set independently of other callers.
+   *
+   * @return the expression
+   * @throws IllegalArgumentException if the expression can not be parsed, see {@link
+   *     ExpressionBuilder#build()}
+   */
+  public Expression get() {
+    Object parsed = parse();
+    if (parsed instanceof RuntimeException) {
+      throw (RuntimeException) parsed;
+    }
+    return new Expression((Expression) parsed);
+  }
+
+  /**
+   * Validate the structure of the expression, parsing it if that has not happened yet. This is
+   * the same as {@link Expression#validate(boolean)} without checking the variables, except that
+   * a parse error is reported as the single error of an invalid result.
+   *
+   * @return the result of the validation
+   */
+  public ValidationResult validate() {
+    Object parsed = parse();
+    if (parsed instanceof RuntimeException) {
+      return new ValidationResult(
+          false, Collections.singletonList(((RuntimeException) parsed).getMessage()));
+    }
+    return ((Expression) parsed).validate(false);
+  }
+
+  /**
+   * Check whether the expression has been parsed, successfully or not
+   *
+   * @return true if the expression has been parsed
+   */
+  public boolean isParsed() {
+    return result != null;
+  }
+
+  /**
+   * Get the text of the expression
+   *
+   * @return the expression
+   */
+  public String getExpression() {
+    return expression;
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+}
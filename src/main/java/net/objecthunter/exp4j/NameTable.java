@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.Arrays;
+import net.objecthunter.exp4j.function.Function;
+
+/**
+ * Hash table of the declared names, which looks a name up in place in the chars of an expression
+ * instead of creating a string for it. A name maps to its own {@link String} instance if it is a
+ * variable, to its {@link Function} or to the {@link Double} value of a named constant.
+ *
+ * <p>The hash of a name is the one of {@link String#hashCode()}, so a parser can compute it while
+ * scanning the name, and derive the hash of each shorter prefix with {@link #prefixHash(int,
+ * char)}.
+ */
+final class NameTable {
+
+  /* the multiplicative inverse of 31 modulo 2^32, which undoes the last step of String.hashCode() */
+  private static final int INVERSE_31 = 0xBDEF7BDF;
+
+  private final String[] keys;
+
+  /* the chars of the keys, compared with the chars of an expression */
+  private final char[][] keyChars;
+
+  private final Object[] values;
+
+  private final int[] hashes;
+
+  private final int mask;
+
+  private int maxNameLength;
+
+  /**
+   * Create an empty table
+   *
+   * @param expectedSize the number of names to be added
+   */
+  NameTable(int expectedSize) {
+    /* at most half full, so that misses end after a probe or two */
+    int capacity = Integer.highestOneBit(Math.max(expectedSize, 1) * 2 - 1) << 1;
+    this.keys = new String[capacity];
+    this.keyChars = new char[capacity][];
+    this.values = new Object[capacity];
+    this.hashes = new int[capacity];
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Add a name, replacing the value of the name if it is already in the table
+   *
+   * @param name the name
+   * @param value the variable's name, the function or the constant's value
+   */
+  void put(String name, Object value) {
+    int hash = name.hashCode();
+    int i = spread(hash) & mask;
+    while (keys[i] != null && !keys[i].equals(name)) {
+      i = (i + 1) & mask;
+    }
+    keys[i] = name;
+    keyChars[i] = name.toCharArray();
+    values[i] = value;
+    hashes[i] = hash;
+    maxNameLength = Math.max(maxNameLength, name.length());
+  }
+
+  /**
+   * Look a name up
+   *
+   * @param name the name
+   * @return the value of the name or null if it is not in the table
+   */
+  Object get(String name) {
+    int hash = name.hashCode();
+    for (int i = spread(hash) & mask; keys[i] != null; i = (i + 1) & mask) {
+      if (hashes[i] == hash && keys[i].equals(name)) {
+        return values[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Look up the name made of a range of chars
+   *
+   * @param chars the chars
+   * @param offset the offset of the name
+   * @param length the length of the name
+   * @param hash the hash of the name as computed by {@link String#hashCode()}
+   * @return the value of the name or null if it is not in the table
+   */
+  Object get(char[] chars, int offset, int length, int hash) {
+    for (int i = spread(hash) & mask; keys[i] != null; i = (i + 1) & mask) {
+      if (hashes[i] == hash
+          && Arrays.equals(keyChars[i], 0, keyChars[i].length, chars, offset, offset + length)) {
+        return values[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the length of the longest name, no longer names have to be looked up
+   *
+   * @return the length of the longest name or 0 if the table is empty
+   */
+  int getMaxNameLength() {
+    return maxNameLength;
+  }
+
+  /**
+   * Derive the hash of a name without its last char from the hash of the name
+   *
+   * @param hash the hash of the name
+   * @param last the last char of the name
+   * @return the hash of the name's prefix
+   */
+  static int prefixHash(int hash, char last) {
+    return (hash - last) * INVERSE_31;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
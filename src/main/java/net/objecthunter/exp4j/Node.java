@@ -0,0 +1,295 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.BinaryOperators;
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * Immutable node of the syntax tree of an expression. Two nodes are equal if they have the same
+ * structure: the same constant (bit for bit), the same variable name or the same function or
+ * operator instance applied to equal children.
+ */
+final class Node {
+
+  private static final Node[] NO_CHILDREN = {};
+
+  /** One of the opcodes of {@link Program} */
+  final int kind;
+
+  final double value;
+
+  final String name;
+
+  final Function function;
+
+  final Operator operator;
+
+  final Node[] children;
+
+  private final int hash;
+
+  private Node(
+      int kind, double value, String name, Function function, Operator operator, Node[] children) {
+    this.kind = kind;
+    this.value = value;
+    this.name = name;
+    this.function = function;
+    this.operator = operator;
+    this.children = children;
+    int h = kind;
+    h = 31 * h + Long.hashCode(Double.doubleToRawLongBits(value));
+    h = 31 * h + (name == null ? 0 : name.hashCode());
+    h = 31 * h + System.identityHashCode(function);
+    h = 31 * h + System.identityHashCode(operator);
+    this.hash = 31 * h + Arrays.hashCode(children);
+  }
+
+  static Node constant(double value) {
+    return new Node(Program.CONSTANT, value, null, null, null, NO_CHILDREN);
+  }
+
+  static Node variable(String name) {
+    return new Node(Program.VARIABLE, 0d, name, null, null, NO_CHILDREN);
+  }
+
+  static Node function(Function function, Node... arguments) {
+    return new Node(
+        Program.FUNCTION, 0d, null, function, null, arguments.length == 0 ? NO_CHILDREN : arguments);
+  }
+
+  static Node operator(Operator operator, Node... operands) {
+    return new Node(Program.OPERATOR, 0d, null, null, operator, operands);
+  }
+
+  /**
+   * Build the syntax tree of a program
+   *
+   * @param program the program
+   * @param intern applied to every node after its children have been interned, e.g. to share
+   *     equal subtrees
+   * @return the root of the tree
+   * @throws IllegalArgumentException if the program is not a valid expression
+   */
+  static Node of(Program program, UnaryOperator<Node> intern) {
+    Node[] stack = new Node[8];
+    int size = 0;
+    byte[] code = program.code;
+    for (int pc = 0; pc < code.length; ) {
+      int instruction = code[pc++];
+      int index = instruction & Program.INDEX_MASK;
+      if (index == Program.WIDE_INDEX) {
+        index = Program.wideIndex(code, pc);
+        pc += 3;
+      }
+      Node node;
+      switch (instruction >> Program.OPCODE_SHIFT & 3) {
+        case Program.CONSTANT:
+          node = constant(program.constants[index]);
+          break;
+        case Program.VARIABLE:
+          node = variable(program.variables[index]);
+          break;
+        case Program.FUNCTION:
+          Function f = program.functions[index];
+          Node[] arguments = pop(stack, size, f.getNumArguments(), f.getName());
+          size -= arguments.length;
+          node = function(f, arguments);
+          break;
+        default:
+          Operator op = program.operators[index];
+          Node[] operands = pop(stack, size, op.getNumOperands(), op.getSymbol());
+          size -= operands.length;
+          node = operator(op, operands);
+          break;
+      }
+      if (size == stack.length) {
+        stack = Arrays.copyOf(stack, size * 2);
+      }
+      stack[size++] = intern.apply(node);
+    }
+    if (size != 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+    }
+    return stack[0];
+  }
+
+  private static Node[] pop(Node[] stack, int size, int count, String symbol) {
+    if (count > size) {
+      throw new IllegalArgumentException(
+          String.format("Invalid number of arguments available for '%s'", symbol));
+    }
+    return Arrays.copyOfRange(stack, size - count, size);
+  }
+
+  /**
+   * Render the tree in its canonical form: bracket style, whitespace and the number format are
+   * normalized, only the parentheses needed to keep the structure are written, and the operands
+   * of the builtin addition and multiplication are ordered. Swapping the operands of a single
+   * addition or multiplication never changes the result; operations are never regrouped, since
+   * floating point arithmetic is not associative.
+   *
+   * @return the canonical form, which can be parsed again
+   */
+  String toCanonicalString() {
+    return render(this);
+  }
+
+  private static String render(Node node) {
+    switch (node.kind) {
+      case Program.CONSTANT:
+        return formatConstant(node.value);
+      case Program.VARIABLE:
+        return node.name;
+      case Program.FUNCTION:
+        StringBuilder call = new StringBuilder(node.function.getName()).append('(');
+        for (int i = 0; i < node.children.length; i++) {
+          if (i > 0) {
+            call.append(", ");
+          }
+          call.append(render(node.children[i]));
+        }
+        return call.append(')').toString();
+      default:
+        return renderOperator(node);
+    }
+  }
+
+  private static String renderOperator(Node node) {
+    Operator op = node.operator;
+    if (node.children.length == 1) {
+      Node operand = node.children[0];
+      String rendered =
+          parenthesize(
+              operand, precedence(operand) <= op.getPrecedence() || isNegativeConstant(operand));
+      /* unary operators are prefix operators unless they are left associative, like '!' */
+      return op.isLeftAssociative() ? rendered + op.getSymbol() : op.getSymbol() + rendered;
+    }
+
+    Node left = node.children[0];
+    Node right = node.children[1];
+    String leftRendered = render(left);
+    String rightRendered = render(right);
+    if (isCommutative(op) && compare(left, leftRendered, right, rightRendered) > 0) {
+      Node swapped = left;
+      left = right;
+      right = swapped;
+      String swappedRendered = leftRendered;
+      leftRendered = rightRendered;
+      rightRendered = swappedRendered;
+    }
+    return parenthesize(leftRendered, needsParentheses(op, left, false))
+        + ' '
+        + op.getSymbol()
+        + ' '
+        + parenthesize(rightRendered, needsParentheses(op, right, true));
+  }
+
+  private static boolean isCommutative(Operator op) {
+    return op == BinaryOperators.ADDITION || op == BinaryOperators.MULTIPLICATION;
+  }
+
+  /** Constants first, then variables, functions and operators, each ordered by their rendering */
+  private static int compare(Node left, String leftRendered, Node right, String rightRendered) {
+    if (left.kind != right.kind) {
+      return Integer.compare(left.kind, right.kind);
+    }
+    return leftRendered.compareTo(rightRendered);
+  }
+
+  private static boolean needsParentheses(Operator parent, Node operand, boolean right) {
+    if (operand.kind != Program.OPERATOR) {
+      /* '-2 ^ x' would be parsed as '-(2 ^ x)' */
+      return isNegativeConstant(operand);
+    }
+    int precedence = operand.operator.getPrecedence();
+    if (precedence != parent.getPrecedence()) {
+      return precedence < parent.getPrecedence();
+    }
+    /* equal precedence: only the operand on the side of the associativity can go without */
+    return operand.children.length != 2 || parent.isLeftAssociative() == right;
+  }
+
+  private static boolean isNegativeConstant(Node node) {
+    return node.kind == Program.CONSTANT
+        && Double.doubleToRawLongBits(node.value) < 0
+        && !Double.isNaN(node.value);
+  }
+
+  private static int precedence(Node node) {
+    return node.kind == Program.OPERATOR ? node.operator.getPrecedence() : Integer.MAX_VALUE;
+  }
+
+  private static String parenthesize(Node node, boolean parentheses) {
+    return parenthesize(render(node), parentheses);
+  }
+
+  private static String parenthesize(String rendered, boolean parentheses) {
+    return parentheses ? '(' + rendered + ')' : rendered;
+  }
+
+  /* non finite constants, e.g. bound from a scope, are written as expressions with the same value */
+  private static String formatConstant(double value) {
+    if (Double.isNaN(value)) {
+      return "(1e999 - 1e999)";
+    }
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "1e999" : "-1e999";
+    }
+    if (value == 0 && Double.doubleToRawLongBits(value) < 0) {
+      return "-0.0";
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Node)) {
+      return false;
+    }
+    Node other = (Node) o;
+    if (hash != other.hash
+        || kind != other.kind
+        || Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(other.value)
+        || function != other.function
+        || operator != other.operator
+        || (name == null ? other.name != null : !name.equals(other.name))
+        || children.length != other.children.length) {
+      return false;
+    }
+    for (int i = 0; i < children.length; i++) {
+      if (children[i] != other.children[i] && !children[i].equals(other.children[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Evaluates an expression for objects, reading the variables from their accessors. The accessors
+ * are resolved once when the binding is created. Accessor methods returning a number are called
+ * through a {@link ToDoubleFunction} generated by the {@link LambdaMetafactory}, which the JIT
+ * compiles like a direct call; fields, booleans, other {@link Number}s and classes which can not
+ * be looked up privately are read through method handles instead. Evaluating a row involves
+ * neither a map nor any calls to {@link Expression#setVariable(String, double)}.
+ *
+ * <p>Each evaluation uses its own array of variable values, so a binding can be used by several
+ * threads at the same time.
+ */
+final class ObjectBinding<T> implements ToDoubleFunction<T> {
+
+  private static final MethodType ACCESSOR_TYPE = MethodType.methodType(double.class, Object.class);
+
+  private static final MethodType FACTORY_TYPE = MethodType.methodType(ToDoubleFunction.class);
+
+  private static final MethodHandle BOOLEAN_TO_DOUBLE;
+
+  private static final MethodHandle NUMBER_TO_DOUBLE;
+
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      BOOLEAN_TO_DOUBLE =
+          lookup.findStatic(
+              ObjectBinding.class,
+              "booleanToDouble",
+              MethodType.methodType(double.class, boolean.class));
+      NUMBER_TO_DOUBLE =
+          lookup.findVirtual(Number.class, "doubleValue", MethodType.methodType(double.class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final Program program;
+
+  /* the values of the variables without an accessor, like overridable constants */
+  private final double[] defaults;
+
+  /* the slots of the variables read from the object and their accessors */
+  private final int[] slots;
+
+  private final ToDoubleFunction<Object>[] accessors;
+
+  /* whether each accessor has been generated by the LambdaMetafactory, for testing */
+  final boolean[] generated;
+
+  private ObjectBinding(
+      Program program, double[] defaults, int[] slots, ToDoubleFunction<Object>[] accessors) {
+    this.program = program;
+    this.defaults = defaults;
+    this.slots = slots;
+    this.accessors = accessors;
+    this.generated = new boolean[accessors.length];
+    for (int i = 0; i < accessors.length; i++) {
+      generated[i] = !(accessors[i] instanceof HandleAccessor);
+    }
+  }
+
+  /**
+   * Bind an expression to a class
+   *
+   * @param expression the expression
+   * @param type the class of the objects
+   * @param <T> the type of the objects
+   * @return the binding
+   * @throws IllegalArgumentException if the expression is not valid or a variable has neither an
+   *     accessor nor a value
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static <T> ObjectBinding<T> of(Expression expression, Class<T> type) {
+    Program program = expression.getProgram();
+    if (program.maxStackDepth < 0) {
+      throw new IllegalArgumentException(
+          "The expression is not valid: " + expression.validate(false).getErrors());
+    }
+    double[] defaults = expression.getValues().clone();
+    String[] names = program.variables;
+    int[] slots = new int[names.length];
+    ToDoubleFunction<Object>[] accessors = new ToDoubleFunction[names.length];
+    int count = 0;
+    for (int i = 0; i < names.length; i++) {
+      ToDoubleFunction<Object> accessor = findAccessor(type, names[i]);
+      if (accessor != null) {
+        slots[count] = i;
+        accessors[count++] = accessor;
+      } else if (Expression.isUnset(defaults[i])) {
+        throw new IllegalArgumentException(
+            String.format(
+                "The class %s has no accessor for the variable '%s'", type.getName(), names[i]));
+      }
+    }
+    return new ObjectBinding<>(
+        program,
+        defaults,
+        Arrays.copyOf(slots, count),
+        Arrays.copyOf(accessors, count));
+  }
+
+  /**
+   * Find the accessor of a property: a method {@code x()}, {@code getX()} or {@code isX()}, like
+   * the accessors of a record or a bean, or a field {@code x}
+   *
+   * @return the accessor or null if there is none
+   */
+  private static ToDoubleFunction<Object> findAccessor(Class<?> type, String name) {
+    String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    try {
+      for (String methodName : new String[] {name, "get" + capitalized, "is" + capitalized}) {
+        Method method = findMethod(type, methodName);
+        if (method != null) {
+          ToDoubleFunction<Object> generated = generate(method);
+          return generated != null
+              ? generated
+              : new HandleAccessor(adapt(unreflect(method), method.getReturnType()));
+        }
+      }
+      Field field = findField(type, name);
+      if (field != null) {
+        makeAccessible(field);
+        return new HandleAccessor(
+            adapt(MethodHandles.lookup().unreflectGetter(field), field.getType()));
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(
+          String.format("The accessor of '%s' in %s is not accessible", name, type.getName()), e);
+    }
+    return null;
+  }
+
+  private static Method findMethod(Class<?> type, String name) {
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Method method : c.getDeclaredMethods()) {
+        if (method.getName().equals(name)
+            && method.getParameterCount() == 0
+            && !Modifier.isStatic(method.getModifiers())
+            && isNumeric(method.getReturnType())) {
+          return method;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static Field findField(Class<?> type, String name) {
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if (field.getName().equals(name)
+            && !Modifier.isStatic(field.getModifiers())
+            && isNumeric(field.getType())) {
+          return field;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean isNumeric(Class<?> type) {
+    return type.isPrimitive() && type != void.class || Number.class.isAssignableFrom(type);
+  }
+
+  /**
+   * Generate a {@link ToDoubleFunction} calling an accessor method, like the lambda {@code
+   * Order::price} would. The function is defined in the lookup of the declaring class, so it can
+   * call accessors of non public classes as well.
+   *
+   * @return the function or null if the method returns a boolean or a {@link Number} other than
+   *     a primitive wrapper, or if the declaring class can not be looked up privately
+   */
+  @SuppressWarnings("unchecked")
+  private static ToDoubleFunction<Object> generate(Method method) {
+    Class<?> returnType = MethodType.methodType(method.getReturnType()).unwrap().returnType();
+    if (!returnType.isPrimitive() || returnType == boolean.class) {
+      return null;
+    }
+    Class<?> owner = method.getDeclaringClass();
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+      MethodHandle target = lookup.unreflect(method);
+      CallSite site =
+          LambdaMetafactory.metafactory(
+              lookup,
+              "applyAsDouble",
+              FACTORY_TYPE,
+              ACCESSOR_TYPE,
+              target,
+              MethodType.methodType(double.class, owner));
+      return (ToDoubleFunction<Object>) site.getTarget().invoke();
+    } catch (IllegalAccessException | LambdaConversionException | SecurityException e) {
+      /* e.g. the class is in a module which is not open to exp4j */
+      return null;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static MethodHandle unreflect(Method method) throws IllegalAccessException {
+    makeAccessible(method);
+    return MethodHandles.lookup().unreflect(method);
+  }
+
+  /* accessors of non public classes, e.g. local records, are only accessible this way */
+  private static void makeAccessible(AccessibleObject member) {
+    try {
+      member.setAccessible(true);
+    } catch (RuntimeException e) {
+      /* keep the default access checks */
+    }
+  }
+
+  /** Convert the result of an accessor to double */
+  private static MethodHandle adapt(MethodHandle accessor, Class<?> returnType) {
+    if (returnType == boolean.class) {
+      accessor = MethodHandles.filterReturnValue(accessor, BOOLEAN_TO_DOUBLE);
+    } else if (!returnType.isPrimitive()) {
+      accessor =
+          MethodHandles.filterReturnValue(
+              accessor.asType(accessor.type().changeReturnType(Number.class)), NUMBER_TO_DOUBLE);
+    }
+    return accessor.asType(ACCESSOR_TYPE);
+  }
+
+  private static double booleanToDouble(boolean value) {
+    return value ? 1d : 0d;
+  }
+
+  @Override
+  public double applyAsDouble(T object) {
+    double[] values = defaults.length == 0 ? defaults : defaults.clone();
+    for (int i = 0; i < slots.length; i++) {
+      values[slots[i]] = accessors[i].applyAsDouble(object);
+    }
+    return Expression.evaluateProgram(program, values, null);
+  }
+
+  /** Accessor calling a method handle of type {@code (Object)double} */
+  private static final class HandleAccessor implements ToDoubleFunction<Object> {
+
+    private final MethodHandle accessor;
+
+    HandleAccessor(MethodHandle accessor) {
+      this.accessor = accessor;
+    }
+
+    @Override
+    public double applyAsDouble(Object object) {
+      try {
+        return (double) accessor.invokeExact(object);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
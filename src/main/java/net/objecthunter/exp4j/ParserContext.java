@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.*;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.SymbolTrie;
+import net.objecthunter.exp4j.tokenizer.Tokenizer;
+
+/**
+ * Immutable set of functions, operators and variable names shared by many expressions. The
+ * symbol tables used by the parser are built and checked once when the context is built, so
+ * creating an {@link ExpressionBuilder} from a context with {@link #expression(CharSequence)}
+ * only has to parse the expression itself. Instances are thread-safe.
+ *
+ * <pre>
+ * ParserContext context = ParserContext.builder()
+ *     .functions(library)
+ *     .variables("x", "y")
+ *     .build();
+ * Expression e = context.expression("x * discount(y)").build();
+ * </pre>
+ */
+public final class ParserContext {
+
+  private final Map<String, Function> userFunctions;
+
+  private final Map<String, Operator> userOperators;
+
+  private final Set<String> variableNames;
+
+  /* the variables declared by the user, without the builtin constants */
+  private final Set<String> declaredVariableNames;
+
+  private final boolean implicitMultiplication;
+
+  private final boolean overridableConstants;
+
+  private final NameTable names;
+
+  private final SymbolTrie<OperatorToken> operators;
+
+  private ParserContext(Builder builder, Set<String> variableNames, NameTable names) {
+    this.userFunctions = Collections.unmodifiableMap(new HashMap<>(builder.userFunctions));
+    this.userOperators = Collections.unmodifiableMap(new HashMap<>(builder.userOperators));
+    this.variableNames = Collections.unmodifiableSet(variableNames);
+    this.declaredVariableNames =
+        builder.overridableConstants
+            ? Collections.unmodifiableSet(new HashSet<>(builder.variableNames))
+            : this.variableNames;
+    this.implicitMultiplication = builder.implicitMultiplication;
+    this.overridableConstants = builder.overridableConstants;
+    this.names = names;
+    this.operators = Tokenizer.createOperators(userOperators);
+  }
+
+  /**
+   * Create a new builder for a context
+   *
+   * @return the builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Create a new {@link ExpressionBuilder} using the functions, operators and variables of this
+   * context
+   *
+   * @param expression the expression to be parsed
+   * @return the ExpressionBuilder instance
+   */
+  public ExpressionBuilder expression(CharSequence expression) {
+    return new ExpressionBuilder(expression, this);
+  }
+
+  /**
+   * Get the user functions of this context
+   *
+   * @return an unmodifiable map of the functions by name
+   */
+  public Map<String, Function> getFunctions() {
+    return userFunctions;
+  }
+
+  /**
+   * Get the user operators of this context
+   *
+   * @return an unmodifiable map of the operators by symbol
+   */
+  public Map<String, Operator> getOperators() {
+    return userOperators;
+  }
+
+  /**
+   * Get the variable names of this context, including the names of the builtin constants if they
+   * are overridable
+   *
+   * @return an unmodifiable set of the variable names
+   */
+  public Set<String> getVariableNames() {
+    return variableNames;
+  }
+
+  /**
+   * Get the variable names declared for this context, which unlike {@link #getVariableNames()}
+   * never include the builtin constants. Builders start from these, so that they can turn the
+   * overridable constants off again.
+   *
+   * @return an unmodifiable set of the declared variable names
+   */
+  Set<String> getDeclaredVariableNames() {
+    return declaredVariableNames;
+  }
+
+  public boolean isImplicitMultiplication() {
+    return implicitMultiplication;
+  }
+
+  /**
+   * Check if the builtin constants are kept as variables, see {@link
+   * ExpressionBuilder#overridableConstants(boolean)}
+   *
+   * @return true if the constants can be overridden
+   */
+  public boolean isOverridableConstants() {
+    return overridableConstants;
+  }
+
+  NameTable getNames() {
+    return names;
+  }
+
+  SymbolTrie<OperatorToken> getOperatorTrie() {
+    return operators;
+  }
+
+  /** Builder for {@link ParserContext} instances */
+  public static final class Builder {
+
+    private final Map<String, Function> userFunctions = new HashMap<>();
+
+    private final Map<String, Operator> userOperators = new HashMap<>();
+
+    private final Set<String> variableNames = new HashSet<>();
+
+    private boolean implicitMultiplication = true;
+
+    private boolean overridableConstants;
+
+    private Builder() {}
+
+    /**
+     * Add a {@link Function} implementation
+     *
+     * @param function the function
+     * @return the Builder instance
+     */
+    public Builder function(Function function) {
+      this.userFunctions.put(function.getName(), function);
+      return this;
+    }
+
+    /**
+     * Add multiple {@link Function} implementations
+     *
+     * @param functions the functions
+     * @return the Builder instance
+     */
+    public Builder functions(Function... functions) {
+      return functions(Arrays.asList(functions));
+    }
+
+    /**
+     * Add multiple {@link Function} implementations
+     *
+     * @param functions the functions
+     * @return the Builder instance
+     */
+    public Builder functions(Collection<? extends Function> functions) {
+      for (Function f : functions) {
+        this.userFunctions.put(f.getName(), f);
+      }
+      return this;
+    }
+
+    /**
+     * Declare a variable name
+     *
+     * @param variableName the variable name
+     * @return the Builder instance
+     */
+    public Builder variable(String variableName) {
+      this.variableNames.add(variableName);
+      return this;
+    }
+
+    /**
+     * Declare variable names
+     *
+     * @param variableNames the variable names
+     * @return the Builder instance
+     */
+    public Builder variables(String... variableNames) {
+      Collections.addAll(this.variableNames, variableNames);
+      return this;
+    }
+
+    /**
+     * Declare variable names
+     *
+     * @param variableNames the variable names
+     * @return the Builder instance
+     */
+    public Builder variables(Collection<String> variableNames) {
+      this.variableNames.addAll(variableNames);
+      return this;
+    }
+
+    /**
+     * Add an {@link Operator}
+     *
+     * @param operator the operator
+     * @return the Builder instance
+     */
+    public Builder operator(Operator operator) {
+      ExpressionBuilder.checkOperatorSymbol(operator);
+      this.userOperators.put(operator.getSymbol(), operator);
+      return this;
+    }
+
+    /**
+     * Add multiple {@link Operator} implementations
+     *
+     * @param operators the operators
+     * @return the Builder instance
+     */
+    public Builder operators(Operator... operators) {
+      for (Operator o : operators) {
+        operator(o);
+      }
+      return this;
+    }
+
+    public Builder implicitMultiplication(boolean enabled) {
+      this.implicitMultiplication = enabled;
+      return this;
+    }
+
+    /**
+     * Keep the builtin constants as variables, see {@link
+     * ExpressionBuilder#overridableConstants(boolean)}
+     *
+     * @param enabled true to keep the constants as variables
+     * @return the Builder instance
+     */
+    public Builder overridableConstants(boolean enabled) {
+      this.overridableConstants = enabled;
+      return this;
+    }
+
+    /**
+     * Build the immutable context
+     *
+     * @return the context
+     * @throws IllegalArgumentException if a variable has the same name as a function
+     */
+    public ParserContext build() {
+      /* the constants are added to a copy, so that the builder can be built again */
+      Set<String> variables = new HashSet<>(variableNames);
+      NameTable names =
+          ExpressionBuilder.createNames(variables, userFunctions, overridableConstants);
+      return new ParserContext(this, variables, names);
+    }
+  }
+}
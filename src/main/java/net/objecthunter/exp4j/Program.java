@@ -0,0 +1,363 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.*;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.tokenizer.*;
+
+/**
+ * Compact, immutable form of an expression in reverse polish notation. Instead of a list of token
+ * objects, the instructions are packed into a byte array and refer to tables holding the distinct
+ * constants, variable names, functions and operators of the expression.
+ *
+ * <p>Each instruction is a single byte: the opcode in the upper two bits and the index into the
+ * respective table in the lower six bits. Indices from 63 on are written as the escape value 63
+ * followed by three bytes holding the index. An expression therefore needs one byte per token,
+ * plus eight bytes per distinct constant and one reference per distinct variable, function and
+ * operator. Functions, operators and, for expressions built from the same {@link ParserContext},
+ * variable names are shared between programs.
+ *
+ * <p>The structure of a program is checked once when it is created: if every function and
+ * operator finds enough values on the stack and a single value is left at the end, the maximum
+ * depth of the stack is recorded in {@link #maxStackDepth} and the program can be evaluated
+ * without any further checks.
+ */
+final class Program {
+
+  static final int CONSTANT = 0;
+
+  static final int VARIABLE = 1;
+
+  static final int FUNCTION = 2;
+
+  static final int OPERATOR = 3;
+
+  static final int OPCODE_SHIFT = 6;
+
+  static final int INDEX_MASK = 0x3F;
+
+  /** Index value announcing that the index follows in the next three bytes */
+  static final int WIDE_INDEX = INDEX_MASK;
+
+  private static final int MAX_LINEAR_LOOKUP = 8;
+
+  private static final double[] NO_CONSTANTS = {};
+
+  private static final String[] NO_VARIABLES = {};
+
+  private static final Function[] NO_FUNCTIONS = {};
+
+  private static final Operator[] NO_OPERATORS = {};
+
+  final byte[] code;
+
+  final int length;
+
+  final double[] constants;
+
+  final String[] variables;
+
+  final Function[] functions;
+
+  final Operator[] operators;
+
+  final Set<String> userFunctionNames;
+
+  /** The maximum depth of the evaluation stack, or -1 if the program is not well formed */
+  final int maxStackDepth;
+
+  /* lookup table for the slots of expressions with many variables */
+  private final Map<String, Integer> slots;
+
+  Program(
+      byte[] code,
+      int length,
+      double[] constants,
+      String[] variables,
+      Function[] functions,
+      Operator[] operators,
+      Set<String> userFunctionNames) {
+    this.code = code;
+    this.length = length;
+    this.constants = constants.length == 0 ? NO_CONSTANTS : constants;
+    this.variables = variables.length == 0 ? NO_VARIABLES : variables;
+    this.functions = functions.length == 0 ? NO_FUNCTIONS : functions;
+    this.operators = operators.length == 0 ? NO_OPERATORS : operators;
+    this.userFunctionNames = userFunctionNames;
+    this.maxStackDepth = computeMaxStackDepth();
+    if (variables.length > MAX_LINEAR_LOOKUP) {
+      this.slots = new HashMap<>(variables.length * 2);
+      for (int i = 0; i < variables.length; i++) {
+        this.slots.put(variables[i], i);
+      }
+    } else {
+      this.slots = null;
+    }
+  }
+
+  /**
+   * Compile tokens in reverse polish notation into a program
+   *
+   * @param tokens the tokens as returned by the shunting yard algorithm
+   * @param userFunctionNames the names of the user functions, which can not be used as variables
+   * @return the program
+   */
+  static Program compile(List<Token> tokens, Set<String> userFunctionNames) {
+    Map<Long, Integer> constants = new LinkedHashMap<>();
+    Map<String, Integer> variables = new LinkedHashMap<>();
+    Map<Function, Integer> functions = new IdentityHashMap<>();
+    Map<Operator, Integer> operators = new IdentityHashMap<>();
+    List<Function> functionTable = new ArrayList<>();
+    List<Operator> operatorTable = new ArrayList<>();
+    CodeWriter code = new CodeWriter(tokens.size());
+
+    for (Token token : tokens) {
+      switch (token.getType()) {
+        case TOKEN_NUMBER:
+          long bits = Double.doubleToRawLongBits(((NumberToken) token).getValue());
+          code.write(CONSTANT, index(constants, bits, null));
+          break;
+        case TOKEN_VARIABLE:
+          code.write(VARIABLE, index(variables, ((VariableToken) token).getName(), null));
+          break;
+        case TOKEN_FUNCTION:
+          Function function = ((FunctionToken) token).getFunction();
+          code.write(FUNCTION, index(functions, function, functionTable));
+          break;
+        case TOKEN_OPERATOR:
+          Operator operator = ((OperatorToken) token).getOperator();
+          code.write(OPERATOR, index(operators, operator, operatorTable));
+          break;
+        default:
+          throw new IllegalArgumentException(
+              "Unexpected token type " + token.getType() + " in an expression");
+      }
+    }
+
+    double[] constantTable = new double[constants.size()];
+    int i = 0;
+    for (long bits : constants.keySet()) {
+      constantTable[i++] = Double.longBitsToDouble(bits);
+    }
+    return new Program(
+        code.toByteArray(),
+        tokens.size(),
+        constantTable,
+        variables.keySet().toArray(new String[0]),
+        functionTable.toArray(new Function[0]),
+        operatorTable.toArray(new Operator[0]),
+        userFunctionNames);
+  }
+
+  /**
+   * Simulate the evaluation stack, using the same counting as {@link Expression#validate(boolean)}
+   *
+   * @return the maximum depth of the stack or -1 if a function or operator lacks arguments or more
+   *     or less than one value is left at the end
+   */
+  private int computeMaxStackDepth() {
+    int depth = 0;
+    int max = 0;
+    for (int pc = 0; pc < code.length; ) {
+      int instruction = code[pc++];
+      int index = instruction & INDEX_MASK;
+      if (index == WIDE_INDEX) {
+        index = wideIndex(code, pc);
+        pc += 3;
+      }
+      int consumed;
+      switch (instruction >> OPCODE_SHIFT & 3) {
+        case CONSTANT:
+        case VARIABLE:
+          consumed = 0;
+          break;
+        case FUNCTION:
+          consumed = functions[index].getNumArguments();
+          break;
+        default:
+          consumed = operators[index].getNumOperands();
+          if (consumed != 1 && consumed != 2) {
+            return -1;
+          }
+          break;
+      }
+      if (consumed > depth) {
+        return -1;
+      }
+      depth += 1 - consumed;
+      max = Math.max(max, depth);
+    }
+    return depth == 1 ? max : -1;
+  }
+
+  private static <K> int index(Map<K, Integer> indices, K key, List<K> table) {
+    Integer index = indices.get(key);
+    if (index == null) {
+      index = indices.size();
+      indices.put(key, index);
+      if (table != null) {
+        table.add(key);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Create a program with the variables defined by a scope replaced by their values
+   *
+   * @param scope the scope
+   * @return the new program or this program if the scope defines none of its variables
+   */
+  Program bind(VariableScope scope) {
+    Double[] bound = new Double[variables.length];
+    boolean any = false;
+    for (int i = 0; i < variables.length; i++) {
+      bound[i] = scope.get(variables[i]);
+      any |= bound[i] != null;
+    }
+    if (!any) {
+      return this;
+    }
+
+    Map<Long, Integer> constantIndices = new LinkedHashMap<>();
+    for (double c : constants) {
+      constantIndices.put(Double.doubleToRawLongBits(c), constantIndices.size());
+    }
+    Map<String, Integer> variableIndices = new LinkedHashMap<>();
+    CodeWriter writer = new CodeWriter(code.length);
+    for (int pc = 0; pc < code.length; ) {
+      int instruction = code[pc++];
+      int index = instruction & INDEX_MASK;
+      if (index == WIDE_INDEX) {
+        index = wideIndex(code, pc);
+        pc += 3;
+      }
+      int opcode = instruction >> OPCODE_SHIFT & 3;
+      if (opcode == VARIABLE && bound[index] != null) {
+        long bits = Double.doubleToRawLongBits(bound[index]);
+        writer.write(CONSTANT, index(constantIndices, bits, null));
+      } else if (opcode == VARIABLE) {
+        writer.write(VARIABLE, index(variableIndices, variables[index], null));
+      } else {
+        writer.write(opcode, index);
+      }
+    }
+
+    double[] constantTable = new double[constantIndices.size()];
+    int i = 0;
+    for (long bits : constantIndices.keySet()) {
+      constantTable[i++] = Double.longBitsToDouble(bits);
+    }
+    return new Program(
+        writer.toByteArray(),
+        length,
+        constantTable,
+        variableIndices.keySet().toArray(new String[0]),
+        functions,
+        operators,
+        userFunctionNames);
+  }
+
+  /**
+   * Read an index written as {@link #WIDE_INDEX} followed by three bytes
+   *
+   * @param code the instructions
+   * @param pc the position of the first of the three bytes
+   * @return the index
+   */
+  static int wideIndex(byte[] code, int pc) {
+    return (code[pc] & 0xFF) << 16 | (code[pc + 1] & 0xFF) << 8 | code[pc + 2] & 0xFF;
+  }
+
+  /**
+   * Get the slot of a variable
+   *
+   * @param name the name of the variable
+   * @return the index of the variable in {@link #variables} or -1 if the program does not use it
+   */
+  int slotOf(String name) {
+    if (slots != null) {
+      Integer slot = slots.get(name);
+      return slot == null ? -1 : slot;
+    }
+    for (int i = 0; i < variables.length; i++) {
+      if (variables[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Estimate the memory used by this program in bytes, assuming compressed references and the
+   * usual 16 byte array header. The variable names, functions and operators themselves are shared
+   * and not counted.
+   */
+  long estimateSize() {
+    return 40L
+        + arraySize(code.length, 1)
+        + arraySize(constants.length, 8)
+        + arraySize(variables.length, 4)
+        + arraySize(functions.length, 4)
+        + arraySize(operators.length, 4)
+        + (slots == null ? 0L : 48L + 48L * variables.length);
+  }
+
+  /** The size of an array, or 0 for the shared empty arrays */
+  static long arraySize(int length, int elementSize) {
+    return length == 0 ? 0L : (16L + (long) length * elementSize + 7) & ~7L;
+  }
+
+  /** Growable buffer for the packed instructions */
+  static final class CodeWriter {
+
+    private byte[] code;
+
+    private int size;
+
+    CodeWriter(int capacity) {
+      code = new byte[Math.max(capacity, 1)];
+    }
+
+    void write(int opcode, int index) {
+      if (index < WIDE_INDEX) {
+        ensureCapacity(1);
+        code[size++] = (byte) (opcode << OPCODE_SHIFT | index);
+      } else {
+        if (index > 0xFFFFFF) {
+          throw new IllegalArgumentException("The expression is too large");
+        }
+        ensureCapacity(4);
+        code[size++] = (byte) (opcode << OPCODE_SHIFT | WIDE_INDEX);
+        code[size++] = (byte) (index >>> 16);
+        code[size++] = (byte) (index >>> 8);
+        code[size++] = (byte) index;
+      }
+    }
+
+    private void ensureCapacity(int n) {
+      if (size + n > code.length) {
+        code = Arrays.copyOf(code, Math.max(code.length * 2, size + n));
+      }
+    }
+
+    byte[] toByteArray() {
+      return size == code.length ? code : Arrays.copyOf(code, size);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe hash-consing table for the subexpressions of {@link ExpressionGroup}s. Equal
+ * subtrees of all groups built with the same table are represented by a single shared node, so a
+ * table shared by many groups, e.g. held in a static field, keeps each distinct subexpression in
+ * memory only once.
+ *
+ * <p>Nodes are never removed from the table unless it is cleared, so a long lived table grows
+ * with the number of distinct subexpressions it has seen.
+ */
+public final class SubexpressionTable {
+
+  private final ConcurrentHashMap<Node, Node> nodes = new ConcurrentHashMap<>();
+
+  Node intern(Node node) {
+    Node existing = nodes.putIfAbsent(node, node);
+    return existing == null ? node : existing;
+  }
+
+  /**
+   * Get the number of distinct subexpressions in the table
+   *
+   * @return the number of nodes
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /** Remove all nodes. Groups which have already been built are not affected. */
+  public void clear() {
+    nodes.clear();
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.objecthunter.exp4j.exception.ErrorCode;
+
+/**
+ * Reusable container for the errors found by {@link Expression#validate(ValidationReport,
+ * boolean)} and {@link ExpressionBuilder#tryBuild(ValidationReport)}. Errors are recorded as an
+ * {@link ErrorCode} with a position and a subject, and their messages are only formatted when
+ * requested, so validating many expressions with one report allocates next to nothing.
+ *
+ * <p>The positions recorded by {@link ExpressionBuilder#tryBuild(ValidationReport)} are the
+ * indices of the offending chars in the expression, for parse errors as well as for structural
+ * errors like too many operators. Errors found after the last char, like too many operands, are
+ * at the length of the expression. {@link Expression#validate(ValidationReport, boolean)} has no
+ * chars to refer to and records the index of the offending token in reverse polish notation.
+ *
+ * <p>Reports are not thread safe; use one report per thread.
+ */
+public final class ValidationReport {
+
+  private ErrorCode[] codes = new ErrorCode[4];
+
+  private int[] positions = new int[4];
+
+  private String[] subjects = new String[4];
+
+  private int size;
+
+  /** Remove all errors, keeping the allocated capacity */
+  public void clear() {
+    Arrays.fill(subjects, 0, size, null);
+    size = 0;
+  }
+
+  void add(ErrorCode code, int position, String subject) {
+    if (size == codes.length) {
+      codes = Arrays.copyOf(codes, size * 2);
+      positions = Arrays.copyOf(positions, size * 2);
+      subjects = Arrays.copyOf(subjects, size * 2);
+    }
+    codes[size] = code;
+    positions[size] = position;
+    subjects[size] = subject;
+    size++;
+  }
+
+  void setPosition(int index, int position) {
+    positions[checkIndex(index)] = position;
+  }
+
+  /**
+   * Check if no errors have been recorded
+   *
+   * @return true if the report holds no errors
+   */
+  public boolean isValid() {
+    return size == 0;
+  }
+
+  public int getErrorCount() {
+    return size;
+  }
+
+  public ErrorCode getErrorCode(int index) {
+    return codes[checkIndex(index)];
+  }
+
+  public int getPosition(int index) {
+    return positions[checkIndex(index)];
+  }
+
+  /**
+   * Get the subject of an error, e.g. the name of a variable which has not been set
+   *
+   * @param index the index of the error
+   * @return the subject or null if the error has none
+   */
+  public String getSubject(int index) {
+    return subjects[checkIndex(index)];
+  }
+
+  /**
+   * Format the message of an error
+   *
+   * @param index the index of the error
+   * @return the message
+   */
+  public String getMessage(int index) {
+    checkIndex(index);
+    return codes[index].format(subjects[index], positions[index]);
+  }
+
+  /**
+   * Format the messages of all errors
+   *
+   * @return the messages in the order the errors were found
+   */
+  public List<String> getMessages() {
+    List<String> messages = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      messages.add(getMessage(i));
+    }
+    return messages;
+  }
+
+  /**
+   * Convert this report into a {@link ValidationResult}, formatting all messages
+   *
+   * @return the result
+   */
+  public ValidationResult toValidationResult() {
+    return size == 0 ? ValidationResult.SUCCESS : new ValidationResult(false, getMessages());
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(
+          String.format("Index %d is out of bounds for %d errors", index, size));
+    }
+    return index;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ValidationReport{valid=%s, errors=%s}", isValid(), getMessages());
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+/**
+ * Supplies the values of variables on demand, e.g. inputs which are expensive to compute or have
+ * to be fetched remotely, see {@link Expression#evaluateWith(VariableProvider)}
+ */
+@FunctionalInterface
+public interface VariableProvider {
+
+  /**
+   * Get the value of a variable
+   *
+   * @param name the name of the variable
+   * @return the value
+   * @throws IllegalArgumentException if the provider has no value for the variable
+   */
+  double getValue(String name);
+}
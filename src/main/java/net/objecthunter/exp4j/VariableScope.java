@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.*;
+
+/**
+ * Immutable set of variable values shared by many expressions, e.g. global constants or the
+ * parameters of a tenant. Scopes are chained: a scope created with {@link #with(Map)} falls back
+ * to its parent for the variables it does not define itself.
+ *
+ * <p>Binding a scope to an expression, see {@link Expression#withScope(VariableScope)} and {@link
+ * ExpressionBuilder#scope(VariableScope)}, replaces the variables defined by the scope with their
+ * values once, so they cost nothing per evaluation and only the remaining variables have to be
+ * set for each call.
+ *
+ * <pre>
+ * VariableScope global = VariableScope.of(globals);
+ * VariableScope tenant = global.with(tenantParameters);
+ * Expression price = tenantFormula.withScope(tenant);
+ * double result = new Expression(price).setVariable("quantity", 3).evaluate();
+ * </pre>
+ */
+public final class VariableScope {
+
+  /** The scope without any variables */
+  public static final VariableScope EMPTY = new VariableScope(null, Collections.emptyMap());
+
+  private final VariableScope parent;
+
+  private final Map<String, Double> values;
+
+  private VariableScope(VariableScope parent, Map<String, Double> values) {
+    this.parent = parent;
+    this.values = values;
+  }
+
+  /**
+   * Create a scope without a parent
+   *
+   * @param values the values of the variables by name, which are copied
+   * @return the scope
+   */
+  public static VariableScope of(Map<String, Double> values) {
+    return EMPTY.with(values);
+  }
+
+  /**
+   * Create a child scope, whose values take precedence over the values of this scope
+   *
+   * @param values the values of the variables by name, which are copied
+   * @return the child scope
+   * @throws IllegalArgumentException if a name or value is null
+   */
+  public VariableScope with(Map<String, Double> values) {
+    Map<String, Double> copy = new HashMap<>(values.size() * 2);
+    for (Map.Entry<String, Double> v : values.entrySet()) {
+      if (v.getKey() == null || v.getValue() == null) {
+        throw new IllegalArgumentException(
+            String.format("The scope can not contain null names or values [%s]", v.getKey()));
+      }
+      copy.put(v.getKey(), v.getValue());
+    }
+    return new VariableScope(this, Collections.unmodifiableMap(copy));
+  }
+
+  /**
+   * Create a child scope defining a single variable
+   *
+   * @param name the name of the variable
+   * @param value the value of the variable
+   * @return the child scope
+   */
+  public VariableScope with(String name, double value) {
+    return with(Collections.singletonMap(name, value));
+  }
+
+  /**
+   * Get the value of a variable, looking it up in the parent scopes if this scope does not
+   * define it
+   *
+   * @param name the name of the variable
+   * @return the value or null if no scope of the chain defines the variable
+   */
+  public Double get(String name) {
+    for (VariableScope scope = this; scope != null; scope = scope.parent) {
+      Double value = scope.values.get(name);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the parent of this scope
+   *
+   * @return the parent or null for {@link #EMPTY}
+   */
+  public VariableScope getParent() {
+    return parent;
+  }
+
+  /**
+   * Get the names of the variables defined by this scope and its parents
+   *
+   * @return the names
+   */
+  public Set<String> getNames() {
+    Set<String> names = new HashSet<>();
+    for (VariableScope scope = this; scope != null; scope = scope.parent) {
+      names.addAll(scope.values.keySet());
+    }
+    return names;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("VariableScope{names=%s}", getNames());
+  }
+}
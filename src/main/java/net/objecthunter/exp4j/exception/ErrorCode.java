@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.exception;
+
+/**
+ * Codes of the problems found while parsing or validating an expression. The message of each
+ * code is only formatted when it is requested, see {@link #format(String, int)}.
+ */
+public enum ErrorCode {
+
+  /** A char which can not start any token, the subject is the char */
+  INVALID_CHARACTER("Unable to parse char '%1$s' at [%2$d]"),
+
+  /** A malformed number literal, the subject is the literal */
+  INVALID_NUMBER("Invalid number '%1$s' at [%2$d]"),
+
+  /** A name which is neither a declared variable nor a function, the subject is the name */
+  UNKNOWN_FUNCTION_OR_VARIABLE("Unknown function or variable '%1$s' at pos %2$d"),
+
+  /** An operator char without a matching operator, the subject is the char */
+  UNKNOWN_OPERATOR("Unknown operator '%1$s' at [%2$d]"),
+
+  /** A closing parenthesis without an opening one or vice versa */
+  MISMATCHED_PARENTHESES("Mismatched parentheses detected at [%2$d]"),
+
+  /** An argument separator outside of a function call */
+  MISPLACED_SEPARATOR("Misplaced function separator ',' or mismatched parentheses at [%2$d]"),
+
+  /** A variable without a value, the subject is the variable name */
+  VARIABLE_NOT_SET("The setVariable '%1$s' has not been set"),
+
+  /** A function applied to too few arguments, the subject is the function name */
+  NOT_ENOUGH_ARGUMENTS("Not enough arguments for '%1$s'"),
+
+  /** More operators than operands */
+  TOO_MANY_OPERATORS("Too many operators"),
+
+  /** Operands left over after applying all operators and functions */
+  TOO_MANY_OPERANDS("Too many operands"),
+
+  /** An expression without any operand, e.g. only parentheses */
+  EMPTY_EXPRESSION("The expression has no operands");
+
+  private final String template;
+
+  ErrorCode(String template) {
+    this.template = template;
+  }
+
+  /**
+   * Format the message of an error with this code
+   *
+   * @param subject the name, char or literal the error is about, may be null
+   * @param position the position of the error
+   * @return the message
+   */
+  public String format(String subject, int position) {
+    return String.format(template, subject, position);
+  }
+}
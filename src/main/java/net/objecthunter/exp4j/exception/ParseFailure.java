@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.exception;
+
+/**
+ * Lightweight exception used to abort parsing when the caller asked for the problems to be
+ * reported instead of thrown, see {@link net.objecthunter.exp4j.ExpressionBuilder#tryBuild(
+ * net.objecthunter.exp4j.ValidationReport)}. It has no stack trace, and its message is only
+ * formatted on request.
+ */
+public final class ParseFailure extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ErrorCode code;
+
+  private final transient CharSequence expression;
+
+  private final int position;
+
+  private final int length;
+
+  /**
+   * Create a new instance
+   *
+   * @param code the code of the problem
+   * @param expression the expression being parsed
+   * @param position the index of the first char of the offending part of the expression
+   * @param length the length of the offending part, 0 if there is none
+   */
+  public ParseFailure(ErrorCode code, CharSequence expression, int position, int length) {
+    super(null, null, false, false);
+    this.code = code;
+    this.expression = expression;
+    this.position = position;
+    this.length = length;
+  }
+
+  public ErrorCode getCode() {
+    return code;
+  }
+
+  public int getPosition() {
+    return position;
+  }
+
+  /**
+   * Get the offending part of the expression
+   *
+   * @return the name, char or literal the problem is about or null if there is none
+   */
+  public String getSubject() {
+    if (length == 0 || expression == null) {
+      return null;
+    }
+    int end = Math.min(position + length, expression.length());
+    return expression.subSequence(position, end).toString();
+  }
+
+  @Override
+  public String getMessage() {
+    return code.format(getSubject(), position);
+  }
+}
@@ -2,7 +2,7 @@ package net.objecthunter.exp4j.function;
 
 import java.util.function.DoubleBinaryOperator;
 
-public enum BinaryFunctionEnum implements Function {
+public enum BinaryFunctionEnum implements Function2 {
   POW("pow", Math::pow),
   LOGB("logb", (a, b) -> Math.log(a) / Math.log(b));
 
@@ -25,7 +25,7 @@ public enum BinaryFunctionEnum implements Function {
   }
 
   @Override
-  public double apply(double... args) {
-    return function.applyAsDouble(args[0], args[1]);
+  public double apply(double a, double b) {
+    return function.applyAsDouble(a, b);
   }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+/**
+ * A {@link Function} taking three arguments. Expressions call {@link #apply(double, double,
+ * double)} directly, without packing the arguments into an array.
+ */
+public interface Function3 extends Function {
+
+  double apply(double a, double b, double c);
+
+  @Override
+  default int getNumArguments() {
+    return 3;
+  }
+
+  @Override
+  default double apply(double... args) {
+    return apply(args[0], args[1], args[2]);
+  }
+}
@@ -2,7 +2,7 @@ package net.objecthunter.exp4j.function;
 
 import java.util.function.DoubleUnaryOperator;
 
-public enum UnaryFunctionEnum implements Function {
+public enum UnaryFunctionEnum implements Function1 {
   SIN("sin", Math::sin),
   COS("cos", Math::cos),
   TAN("tan", Math::tan),
@@ -52,8 +52,8 @@ public enum UnaryFunctionEnum implements Function {
   }
 
   @Override
-  public double apply(double... args) {
-    return function.applyAsDouble(args[0]);
+  public double apply(double a) {
+    return function.applyAsDouble(a);
   }
 
   private static int signumLt0(double a) {
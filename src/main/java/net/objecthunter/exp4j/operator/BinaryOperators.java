@@ -4,7 +4,7 @@ import java.util.function.DoubleBinaryOperator;
 
 import static net.objecthunter.exp4j.operator.Operators.*;
 
-public enum BinaryOperators implements Operator {
+public enum BinaryOperators implements Operator2 {
   ADDITION("+", true, PRECEDENCE_ADDITION, Double::sum),
   SUBTRACTION("-", true, PRECEDENCE_SUBTRACTION, (a, b) -> a - b),
   MULTIPLICATION("*", true, PRECEDENCE_MULTIPLICATION, (a, b) -> a * b),
@@ -46,7 +46,7 @@ public enum BinaryOperators implements Operator {
   }
 
   @Override
-  public double apply(double... doubles) {
-    return operator.applyAsDouble(doubles[0], doubles[1]);
+  public double apply(double left, double right) {
+    return operator.applyAsDouble(left, right);
   }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.operator;
+
+/**
+ * An {@link Operator} with two operands. Expressions call {@link #apply(double, double)}
+ * directly, without packing the operands into an array.
+ */
+public interface Operator2 extends Operator {
+
+  double apply(double left, double right);
+
+  @Override
+  default int getNumOperands() {
+    return 2;
+  }
+
+  @Override
+  default double apply(double... doubles) {
+    return apply(doubles[0], doubles[1]);
+  }
+}
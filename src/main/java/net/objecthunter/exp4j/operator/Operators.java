@@ -15,6 +15,8 @@
  */
 package net.objecthunter.exp4j.operator;
 
+import java.util.BitSet;
+
 public class Operators {
 
   /** The precedence value for the addition operation */
@@ -47,6 +49,9 @@ public class Operators {
     '√', '∛', '⌈', '⌊'
   };
 
+  /** Lookup table of the allowed operator chars, indexed by char value */
+  private static final BitSet ALLOWED_OPERATOR_CHAR_SET = createAllowedOperatorCharSet();
+
   private Operators() {
     throw new UnsupportedOperationException("Utility class should not be instantiated");
   }
@@ -78,11 +83,14 @@ public class Operators {
    * @return true if the char is allowed an an operator symbol, false otherwise
    */
   public static boolean isAllowedOperatorChar(char ch) {
-    for (char allowed : ALLOWED_OPERATOR_CHARS) {
-      if (ch == allowed) {
-        return true;
-      }
+    return ALLOWED_OPERATOR_CHAR_SET.get(ch);
+  }
+
+  private static BitSet createAllowedOperatorCharSet() {
+    BitSet allowed = new BitSet();
+    for (char ch : ALLOWED_OPERATOR_CHARS) {
+      allowed.set(ch);
     }
-    return false;
+    return allowed;
   }
 }
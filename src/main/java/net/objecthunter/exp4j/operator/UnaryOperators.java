@@ -5,7 +5,7 @@ import java.util.function.DoubleUnaryOperator;
 import static net.objecthunter.exp4j.operator.Operators.PRECEDENCE_UNARY_MINUS;
 import static net.objecthunter.exp4j.operator.Operators.PRECEDENCE_UNARY_PLUS;
 
-public enum UnaryOperators implements Operator {
+public enum UnaryOperators implements Operator1 {
   UNARY_MINUS("-", PRECEDENCE_UNARY_MINUS, a -> -a),
   UNARY_PLUS("+", PRECEDENCE_UNARY_PLUS, a -> a);
 
@@ -40,7 +40,7 @@ public enum UnaryOperators implements Operator {
   }
 
   @Override
-  public double apply(double... doubles) {
-    return operator.applyAsDouble(doubles[0]);
+  public double apply(double operand) {
+    return operator.applyAsDouble(operand);
   }
 }
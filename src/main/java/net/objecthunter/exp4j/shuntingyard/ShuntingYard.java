@@ -15,10 +15,17 @@
  */
 package net.objecthunter.exp4j.shuntingyard;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.objecthunter.exp4j.exception.ErrorCode;
+import net.objecthunter.exp4j.exception.ParseFailure;
 import net.objecthunter.exp4j.function.Function;
 import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.SymbolTrie;
 import net.objecthunter.exp4j.tokenizer.Token;
 import net.objecthunter.exp4j.tokenizer.TokenType;
 import net.objecthunter.exp4j.tokenizer.Tokenizer;
@@ -31,7 +38,10 @@ public class ShuntingYard {
   }
 
   /**
-   * Convert a Set of tokens from infix to reverse polish notation
+   * Convert a Set of tokens from infix to reverse polish notation. The tokens are pulled from the
+   * {@link Tokenizer} one at a time and numbers, variables and operators are emitted to the output
+   * as soon as their position is known, in a single pass over the expression. The pending
+   * operators, functions and open parentheses are kept on a plain array.
    *
    * @param expression the expression to convert
    * @param userFunctions the custom functions used
@@ -41,17 +51,60 @@ public class ShuntingYard {
    * @return a {@link net.objecthunter.exp4j.tokenizer.Token} array containing the result
    */
   public static List<Token> convertToRPN(
-      String expression,
+      CharSequence expression,
       Map<String, Function> userFunctions,
       Map<String, Operator> userOperators,
       Set<String> variableNames,
       boolean implicitMultiplication) {
-    Deque<Token> deque = new ArrayDeque<>();
-    List<Token> output = new ArrayList<>();
-
-    Tokenizer tokenizer =
+    return convertToRPN(
         new Tokenizer(
-            expression, userFunctions, userOperators, variableNames, implicitMultiplication);
+            expression, userFunctions, userOperators, variableNames, implicitMultiplication));
+  }
+
+  /**
+   * Convert the tokens of an expression from infix to reverse polish notation, using prebuilt
+   * symbol tries
+   *
+   * @param expression the expression to convert
+   * @param names the trie of the user declared functions and variables
+   * @param userOperators the trie of the user declared operators
+   * @param implicitMultiplication set to false to turn off implicit multiplication
+   * @return a {@link net.objecthunter.exp4j.tokenizer.Token} array containing the result
+   * @see Tokenizer#createNames(Map, Set)
+   * @see Tokenizer#createOperators(Map)
+   */
+  public static List<Token> convertToRPN(
+      CharSequence expression,
+      SymbolTrie<Token> names,
+      SymbolTrie<OperatorToken> userOperators,
+      boolean implicitMultiplication) {
+    return convertToRPN(new Tokenizer(expression, names, userOperators, implicitMultiplication));
+  }
+
+  /**
+   * Convert the tokens of an expression from infix to reverse polish notation, using prebuilt
+   * symbol tries and reporting syntax errors by throwing lightweight {@link ParseFailure}s
+   *
+   * @param expression the expression to convert
+   * @param names the trie of the user declared functions and variables
+   * @param userOperators the trie of the user declared operators
+   * @param implicitMultiplication set to false to turn off implicit multiplication
+   * @return a {@link net.objecthunter.exp4j.tokenizer.Token} array containing the result
+   * @throws ParseFailure if the expression has a syntax error
+   */
+  public static List<Token> convertToRPNReportingFailures(
+      CharSequence expression,
+      SymbolTrie<Token> names,
+      SymbolTrie<OperatorToken> userOperators,
+      boolean implicitMultiplication) {
+    return convertToRPN(
+        new Tokenizer(expression, names, userOperators, implicitMultiplication, true));
+  }
+
+  private static List<Token> convertToRPN(Tokenizer tokenizer) {
+    List<Token> output = new ArrayList<>();
+    Token[] stack = new Token[8];
+    int top = -1;
 
     while (tokenizer.hasNext()) {
       Token token = tokenizer.nextToken();
@@ -61,21 +114,34 @@ public class ShuntingYard {
         case TOKEN_VARIABLE:
           output.add(token);
           break;
-        case TOKEN_FUNCTION:
-          deque.push(token); // Equivalent to stack.add
-          break;
-        case TOKEN_SEPARATOR:
-          parseSeparatorToken(deque, output);
-          break;
         case TOKEN_OPERATOR:
-          parseOperatorToken(deque, (OperatorToken) token, output);
-          deque.push(token);
+          top = popOperators(stack, top, ((OperatorToken) token).getOperator(), output);
+          stack = push(stack, ++top, token);
           break;
+        case TOKEN_FUNCTION:
         case TOKEN_PARENTHESES_OPEN:
-          deque.push(token);
+          stack = push(stack, ++top, token);
+          break;
+        case TOKEN_SEPARATOR:
+          top = popUntilOpenParenthesis(stack, top, output);
+          if (top < 0) {
+            throw tokenizer.syntaxError(
+                ErrorCode.MISPLACED_SEPARATOR,
+                "Misplaced function separator ',' or mismatched parentheses");
+          }
           break;
         case TOKEN_PARENTHESES_CLOSE:
-          parseCloseParenthesisToken(deque, output);
+          top = popUntilOpenParenthesis(stack, top, output);
+          if (top < 0) {
+            throw tokenizer.syntaxError(
+                ErrorCode.MISMATCHED_PARENTHESES,
+                "Mismatched parentheses detected. Please check the expression");
+          }
+          /* drop the open parenthesis and emit the function it belongs to */
+          stack[top--] = null;
+          if (top >= 0 && stack[top].getType() == TokenType.TOKEN_FUNCTION) {
+            output.add(stack[top--]);
+          }
           break;
         default:
           throw new IllegalArgumentException(
@@ -83,76 +149,68 @@ public class ShuntingYard {
       }
     }
 
-    detectUnbalancedParenthesis(deque, output);
-
-    return output;
-  }
-
-  private static void detectUnbalancedParenthesis(Deque<Token> deque, List<Token> output) {
-    while (!deque.isEmpty()) {
-      Token t = deque.pop();
-      if (t.getType() == TokenType.TOKEN_PARENTHESES_CLOSE
-          || t.getType() == TokenType.TOKEN_PARENTHESES_OPEN) {
-        throw new IllegalArgumentException(
+    /* emit the remaining operators and functions, any parenthesis left is unbalanced */
+    for (; top >= 0; top--) {
+      if (stack[top].getType() == TokenType.TOKEN_PARENTHESES_OPEN) {
+        throw tokenizer.syntaxError(
+            ErrorCode.MISMATCHED_PARENTHESES,
             "Mismatched parentheses detected. Please check the expression");
-      } else {
-        output.add(t);
       }
+      output.add(stack[top]);
     }
-  }
 
-  private static void parseCloseParenthesisToken(Deque<Token> deque, List<Token> output) {
-    while (!deque.isEmpty() && deque.peek().getType() != TokenType.TOKEN_PARENTHESES_OPEN) {
-      output.add(deque.pop());
-    }
-
-    deque.pop();
+    return output;
+  }
 
-    if (!deque.isEmpty() && deque.peek().getType() == TokenType.TOKEN_FUNCTION) {
-      output.add(deque.pop());
+  /**
+   * Store a token at the given index of the stack, growing the stack if it is full
+   *
+   * @return the stack holding the token
+   */
+  private static Token[] push(Token[] stack, int top, Token token) {
+    if (top == stack.length) {
+      stack = Arrays.copyOf(stack, stack.length * 2);
     }
+    stack[top] = token;
+    return stack;
   }
 
-  private static void parseOperatorToken(
-      Deque<Token> deque, OperatorToken token, List<Token> output) {
-    while (!deque.isEmpty() && deque.peek().getType() == TokenType.TOKEN_OPERATOR) {
-      OperatorToken operation2 = (OperatorToken) deque.peek();
-
-      Operator operator = token.getOperator();
-      int precedence = operator.getPrecedence();
+  /**
+   * Emit the operators on top of the stack which bind at least as tight as the given operator
+   *
+   * @return the new index of the top of the stack
+   */
+  private static int popOperators(Token[] stack, int top, Operator operator, List<Token> output) {
+    int precedence = operator.getPrecedence();
+    while (top >= 0 && stack[top].getType() == TokenType.TOKEN_OPERATOR) {
+      Operator operator2 = ((OperatorToken) stack[top]).getOperator();
 
-      if (operator.getNumOperands() == 1
-          && Optional.ofNullable(operation2)
-              .map(OperatorToken::getOperator)
-              .map(Operator::getNumOperands)
-              .filter(op -> op == 2)
-              .isPresent()) {
+      /* a unary operator never pops a binary one */
+      if (operator.getNumOperands() == 1 && operator2.getNumOperands() == 2) {
         break;
       }
 
-      Optional<Integer> optionalPrecedence =
-          Optional.ofNullable(operation2)
-              .map(OperatorToken::getOperator)
-              .map(Operator::getPrecedence);
-
-      if (operator.isLeftAssociative()
-              && optionalPrecedence.filter(val -> precedence <= val).isPresent()
-          || optionalPrecedence.filter(val -> precedence < val).isPresent()) {
-        output.add(deque.pop());
+      if (operator.isLeftAssociative() && precedence <= operator2.getPrecedence()
+          || precedence < operator2.getPrecedence()) {
+        output.add(stack[top]);
+        stack[top--] = null;
       } else {
         break;
       }
     }
+    return top;
   }
 
-  private static void parseSeparatorToken(Deque<Token> deque, List<Token> output) {
-    while (!deque.isEmpty() && TokenType.TOKEN_PARENTHESES_OPEN != deque.peek().getType()) {
-      output.add(deque.pop());
-    }
-
-    if (deque.isEmpty() || TokenType.TOKEN_PARENTHESES_OPEN != deque.peek().getType()) {
-      throw new IllegalArgumentException(
-          "Misplaced function separator ',' or mismatched parentheses");
+  /**
+   * Emit everything on top of the stack up to the next open parenthesis
+   *
+   * @return the index of the open parenthesis or -1 if there is none
+   */
+  private static int popUntilOpenParenthesis(Token[] stack, int top, List<Token> output) {
+    while (top >= 0 && stack[top].getType() != TokenType.TOKEN_PARENTHESES_OPEN) {
+      output.add(stack[top]);
+      stack[top--] = null;
     }
+    return top;
   }
 }
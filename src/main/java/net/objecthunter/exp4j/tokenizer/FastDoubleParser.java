@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.tokenizer;
+
+import java.math.BigInteger;
+
+/**
+ * Correctly rounded parser for the decimal literals of expressions. It works
+ * directly on the expression and handles the common cases with Clinger's fast path and
+ * the Eisel-Lemire algorithm. Literals they can not decide (more than 19 significant digits,
+ * exponents out of range, ambiguous halfway cases or malformed input) are handed to {@link
+ * Double#parseDouble(String)}.
+ */
+public final class FastDoubleParser {
+
+  private static final int MAX_SIGNIFICANT_DIGITS = 19;
+
+  private static final int MAX_EXPONENT_DIGITS = 9;
+
+  /** The exact powers of ten usable by Clinger's fast path */
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+    1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private FastDoubleParser() {
+    throw new UnsupportedOperationException("Utility class should not be instantiated");
+  }
+
+  /**
+   * Parse a decimal literal
+   *
+   * @param chars the chars containing the literal
+   * @param offset the index of the first char of the literal
+   * @param len the length of the literal
+   * @return the double value nearest to the literal
+   * @throws NumberFormatException if the chars do not form a valid number
+   */
+  public static double parseDouble(CharSequence chars, int offset, int len) {
+    double value = tryParse(chars, offset, offset + len);
+    if (Double.isNaN(value)) {
+      return Double.parseDouble(chars.subSequence(offset, offset + len).toString());
+    }
+    return value;
+  }
+
+  /**
+   * @return the parsed value or NaN if the literal has to be handled by the slow path
+   */
+  private static double tryParse(CharSequence chars, int from, int to) {
+    long mantissa = 0;
+    int numDigits = 0;
+    int exp10 = 0;
+    boolean digitSeen = false;
+    int i = from;
+
+    for (; i < to && isDigit(chars.charAt(i)); i++) {
+      digitSeen = true;
+      if (numDigits == MAX_SIGNIFICANT_DIGITS) {
+        return Double.NaN;
+      }
+      if (numDigits > 0 || chars.charAt(i) != '0') {
+        mantissa = mantissa * 10 + (chars.charAt(i) - '0');
+        numDigits++;
+      }
+    }
+
+    if (i < to && chars.charAt(i) == '.') {
+      for (i++; i < to && isDigit(chars.charAt(i)); i++) {
+        digitSeen = true;
+        if (numDigits == MAX_SIGNIFICANT_DIGITS) {
+          return Double.NaN;
+        }
+        if (numDigits > 0 || chars.charAt(i) != '0') {
+          mantissa = mantissa * 10 + (chars.charAt(i) - '0');
+          numDigits++;
+        }
+        exp10--;
+      }
+    }
+
+    if (!digitSeen) {
+      return Double.NaN;
+    }
+
+    if (i < to && (chars.charAt(i) == 'e' || chars.charAt(i) == 'E')) {
+      i++;
+      boolean negative = false;
+      if (i < to && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+        negative = chars.charAt(i++) == '-';
+      }
+      int expStart = i;
+      int exponent = 0;
+      for (; i < to && isDigit(chars.charAt(i)); i++) {
+        if (i - expStart == MAX_EXPONENT_DIGITS) {
+          return Double.NaN;
+        }
+        exponent = exponent * 10 + (chars.charAt(i) - '0');
+      }
+      if (i == expStart) {
+        return Double.NaN;
+      }
+      exp10 += negative ? -exponent : exponent;
+    }
+
+    if (i != to) {
+      return Double.NaN;
+    }
+
+    if (mantissa == 0) {
+      return 0d;
+    }
+
+    /* Clinger's fast path: both the mantissa and the power of ten are exact doubles, so a single
+    correctly rounded multiplication or division gives the correctly rounded result. Note that
+    19 digit mantissas may overflow into the sign bit, they are unsigned from here on */
+    if (Long.compareUnsigned(mantissa, 1L << 53) <= 0 && exp10 >= -22 && exp10 <= 22) {
+      return exp10 < 0 ? mantissa / POWERS_OF_TEN[-exp10] : mantissa * POWERS_OF_TEN[exp10];
+    }
+
+    return eiselLemire(mantissa, exp10);
+  }
+
+  /**
+   * The Eisel-Lemire algorithm, see Daniel Lemire, "Number Parsing at a Gigabyte per Second".
+   *
+   * @return the correctly rounded value of mantissa * 10^exp10 or NaN if the result can not be
+   *     decided using the 128 bit approximation of the power of ten
+   */
+  private static double eiselLemire(long mantissa, int exp10) {
+    if (exp10 < PowersOfTen.MIN_EXPONENT || exp10 > PowersOfTen.MAX_EXPONENT) {
+      return Double.NaN;
+    }
+
+    /* normalization */
+    int clz = Long.numberOfLeadingZeros(mantissa);
+    long man = mantissa << clz;
+    long retExp2 = ((217706L * exp10) >> 16) + 64 + 1023 - clz;
+
+    /* multiplication with the 128 bit approximation of the power of ten */
+    int idx = exp10 - PowersOfTen.MIN_EXPONENT;
+    long factorHi = PowersOfTen.HIGH[idx];
+    long xHi = unsignedMultiplyHigh(man, factorHi);
+    long xLo = man * factorHi;
+
+    /* wider approximation if the lower bits of the product are all ones */
+    if ((xHi & 0x1FF) == 0x1FF && Long.compareUnsigned(xLo + man, man) < 0) {
+      long factorLo = PowersOfTen.LOW[idx];
+      long yHi = unsignedMultiplyHigh(man, factorLo);
+      long yLo = man * factorLo;
+      long mergedHi = xHi;
+      long mergedLo = xLo + yHi;
+      if (Long.compareUnsigned(mergedLo, xLo) < 0) {
+        mergedHi++;
+      }
+      if ((mergedHi & 0x1FF) == 0x1FF
+          && mergedLo + 1 == 0
+          && Long.compareUnsigned(yLo + man, man) < 0) {
+        return Double.NaN;
+      }
+      xHi = mergedHi;
+      xLo = mergedLo;
+    }
+
+    /* shift to 54 bits */
+    long msb = xHi >>> 63;
+    long retMantissa = xHi >>> (msb + 9);
+    retExp2 -= 1 ^ msb;
+
+    /* halfway ambiguity */
+    if (xLo == 0 && (xHi & 0x1FF) == 0 && (retMantissa & 3) == 1) {
+      return Double.NaN;
+    }
+
+    /* round from 54 to 53 bits */
+    retMantissa += retMantissa & 1;
+    retMantissa >>>= 1;
+    if ((retMantissa >>> 53) > 0) {
+      retMantissa >>>= 1;
+      retExp2++;
+    }
+
+    /* subnormal, infinite or NaN results are left to the slow path */
+    if (Long.compareUnsigned(retExp2 - 1, 0x7FF - 1) >= 0) {
+      return Double.NaN;
+    }
+
+    return Double.longBitsToDouble(retExp2 << 52 | retMantissa & 0x000FFFFFFFFFFFFFL);
+  }
+
+  private static long unsignedMultiplyHigh(long x, long y) {
+    return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+  }
+
+  private static boolean isDigit(char ch) {
+    return ch >= '0' && ch <= '9';
+  }
+
+  /**
+   * 128 bit mantissas of the powers of ten from 1e-348 to 1e347, normalized so that the highest
+   * bit is set and rounded down. They are only needed beyond the fast path, so they are computed
+   * lazily when this class is first used.
+   */
+  private static final class PowersOfTen {
+
+    private static final int MIN_EXPONENT = -348;
+
+    private static final int MAX_EXPONENT = 347;
+
+    private static final long[] HIGH = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+
+    private static final long[] LOW = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+
+    static {
+      BigInteger power = BigInteger.ONE;
+      for (int exp10 = 0; exp10 <= -MIN_EXPONENT; exp10++) {
+        if (exp10 <= MAX_EXPONENT) {
+          /* truncate (or extend) 10^exp10 to its 128 most significant bits */
+          int shift = power.bitLength() - 128;
+          store(exp10, shift > 0 ? power.shiftRight(shift) : power.shiftLeft(-shift));
+        }
+        if (exp10 > 0) {
+          /* floor(2^k / 10^exp10) with k chosen so that the quotient has exactly 128 bits */
+          store(-exp10, BigInteger.ONE.shiftLeft(127 + power.bitLength()).divide(power));
+        }
+        power = power.multiply(BigInteger.TEN);
+      }
+    }
+
+    private static void store(int exp10, BigInteger mantissa) {
+      HIGH[exp10 - MIN_EXPONENT] = mantissa.shiftRight(64).longValue();
+      LOW[exp10 - MIN_EXPONENT] = mantissa.longValue();
+    }
+  }
+}
@@ -15,12 +15,45 @@
  */
 package net.objecthunter.exp4j.tokenizer;
 
+import net.objecthunter.exp4j.function.BinaryFunctionEnum;
 import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.UnaryFunctionEnum;
 
 public class FunctionToken implements Token {
 
+  /* the tokens of the builtin functions, indexed by ordinal */
+  private static final FunctionToken[] UNARY_FUNCTION_TOKENS =
+      createTokens(UnaryFunctionEnum.values());
+
+  private static final FunctionToken[] BINARY_FUNCTION_TOKENS =
+      createTokens(BinaryFunctionEnum.values());
+
   private final Function function;
 
+  /**
+   * Get the token of a function. Builtin functions share a single token each.
+   *
+   * @param function the function
+   * @return the token
+   */
+  public static FunctionToken of(Function function) {
+    if (function instanceof UnaryFunctionEnum) {
+      return UNARY_FUNCTION_TOKENS[((UnaryFunctionEnum) function).ordinal()];
+    }
+    if (function instanceof BinaryFunctionEnum) {
+      return BINARY_FUNCTION_TOKENS[((BinaryFunctionEnum) function).ordinal()];
+    }
+    return new FunctionToken(function);
+  }
+
+  private static FunctionToken[] createTokens(Function[] functions) {
+    FunctionToken[] tokens = new FunctionToken[functions.length];
+    for (int i = 0; i < functions.length; i++) {
+      tokens[i] = new FunctionToken(functions[i]);
+    }
+    return tokens;
+  }
+
   public FunctionToken(Function function) {
     this.function = function;
   }
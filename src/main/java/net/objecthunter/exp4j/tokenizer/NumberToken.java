@@ -15,11 +15,50 @@
  */
 package net.objecthunter.exp4j.tokenizer;
 
+import java.nio.CharBuffer;
+
 /** Represents a number in the expression */
 public final class NumberToken implements Token {
 
+  private static final int CACHE_SIZE = 256;
+
+  /**
+   * Create a new instance by parsing a decimal literal without copying it out of the expression
+   *
+   * @param expression the chars of the expression
+   * @param offset the index of the literal's first char
+   * @param len the length of the literal
+   * @return the token holding the parsed value
+   */
   public static NumberToken of(final char[] expression, final int offset, final int len) {
-    return new NumberToken(Double.parseDouble(String.valueOf(expression, offset, len)));
+    return of(CharBuffer.wrap(expression), offset, len);
+  }
+
+  /**
+   * Create a new instance by parsing a decimal literal without copying it out of the expression
+   *
+   * @param expression the expression
+   * @param offset the index of the literal's first char
+   * @param len the length of the literal
+   * @return the token holding the parsed value
+   */
+  public static NumberToken of(final CharSequence expression, final int offset, final int len) {
+    return valueOf(FastDoubleParser.parseDouble(expression, offset, len));
+  }
+
+  /**
+   * Get a token for a value. Tokens for the small non-negative integers, which make up most of
+   * the literals in typical expressions, are cached.
+   *
+   * @param value the value of the number
+   * @return the token
+   */
+  public static NumberToken valueOf(double value) {
+    /* the sign bit check excludes -0.0 */
+    if (Double.doubleToRawLongBits(value) >= 0 && value < CACHE_SIZE && value == (int) value) {
+      return Cache.TOKENS[(int) value];
+    }
+    return new NumberToken(value);
   }
 
   private final double value;
@@ -46,4 +85,15 @@ public final class NumberToken implements Token {
   public TokenType getType() {
     return TokenType.TOKEN_NUMBER;
   }
+
+  private static final class Cache {
+
+    private static final NumberToken[] TOKENS = new NumberToken[CACHE_SIZE];
+
+    static {
+      for (int i = 0; i < CACHE_SIZE; i++) {
+        TOKENS[i] = new NumberToken(i);
+      }
+    }
+  }
 }
@@ -15,13 +15,46 @@
  */
 package net.objecthunter.exp4j.tokenizer;
 
+import net.objecthunter.exp4j.operator.BinaryOperators;
 import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.UnaryOperators;
 
 /** Represents an operator used in expressions */
 public class OperatorToken implements Token {
 
+  /* the tokens of the builtin operators, indexed by ordinal */
+  private static final OperatorToken[] BINARY_OPERATOR_TOKENS =
+      createTokens(BinaryOperators.values());
+
+  private static final OperatorToken[] UNARY_OPERATOR_TOKENS =
+      createTokens(UnaryOperators.values());
+
   private final Operator operator;
 
+  /**
+   * Get the token of an operator. Builtin operators share a single token each.
+   *
+   * @param op the operator
+   * @return the token
+   */
+  public static OperatorToken of(Operator op) {
+    if (op instanceof BinaryOperators) {
+      return BINARY_OPERATOR_TOKENS[((BinaryOperators) op).ordinal()];
+    }
+    if (op instanceof UnaryOperators) {
+      return UNARY_OPERATOR_TOKENS[((UnaryOperators) op).ordinal()];
+    }
+    return new OperatorToken(op);
+  }
+
+  private static OperatorToken[] createTokens(Operator[] operators) {
+    OperatorToken[] tokens = new OperatorToken[operators.length];
+    for (int i = 0; i < operators.length; i++) {
+      tokens[i] = new OperatorToken(operators[i]);
+    }
+    return tokens;
+  }
+
   /**
    * Create a new instance
    *
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.tokenizer;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable prefix trie mapping symbol names to values. The {@link Tokenizer} walks it one
+ * character at a time using {@link #child(char)}, so finding the longest declared name at a given
+ * position is linear in the length of the name and does not allocate.
+ *
+ * @param <T> the type of the values stored for each symbol
+ */
+public final class SymbolTrie<T> {
+
+  private static final char[] NO_KEYS = new char[0];
+
+  @SuppressWarnings("rawtypes")
+  private static final SymbolTrie[] NO_CHILDREN = new SymbolTrie[0];
+
+  @SuppressWarnings("unchecked")
+  private static final SymbolTrie<?> EMPTY = new SymbolTrie<>(NO_KEYS, NO_CHILDREN, null);
+
+  /* the keys are sorted so that child lookup can use a binary search */
+  private final char[] keys;
+
+  private final SymbolTrie<T>[] children;
+
+  private final T value;
+
+  private SymbolTrie(char[] keys, SymbolTrie<T>[] children, T value) {
+    this.keys = keys;
+    this.children = children;
+    this.value = value;
+  }
+
+  /**
+   * Get an empty trie
+   *
+   * @param <T> the type of the values
+   * @return a trie without any symbols
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> SymbolTrie<T> empty() {
+    return (SymbolTrie<T>) EMPTY;
+  }
+
+  /**
+   * Create a new trie containing the given symbols
+   *
+   * @param symbols the symbol names and their values
+   * @param <T> the type of the values
+   * @return an immutable trie
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> SymbolTrie<T> of(Map<String, ? extends T> symbols) {
+    if (symbols.isEmpty()) {
+      return empty();
+    }
+    String[] names = symbols.keySet().toArray(new String[0]);
+    Arrays.sort(names);
+    Object[] values = new Object[names.length];
+    for (int i = 0; i < names.length; i++) {
+      values[i] = symbols.get(names[i]);
+    }
+    return build(names, (T[]) values, 0, names.length, 0);
+  }
+
+  /**
+   * Build the node for the sorted names in [from, to) which all share the first depth characters.
+   * Since the names are sorted, a name of exactly depth characters comes first and the names
+   * continuing with the same character are adjacent.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static <T> SymbolTrie<T> build(String[] names, T[] values, int from, int to, int depth) {
+    T value = null;
+    if (names[from].length() == depth) {
+      value = values[from++];
+    }
+    if (from == to) {
+      return new SymbolTrie<>(NO_KEYS, NO_CHILDREN, value);
+    }
+
+    int numChildren = 1;
+    for (int i = from + 1; i < to; i++) {
+      if (names[i].charAt(depth) != names[i - 1].charAt(depth)) {
+        numChildren++;
+      }
+    }
+
+    char[] keys = new char[numChildren];
+    SymbolTrie<T>[] children = new SymbolTrie[numChildren];
+    int start = from;
+    for (int child = 0; child < numChildren; child++) {
+      char ch = names[start].charAt(depth);
+      int end = start + 1;
+      while (end < to && names[end].charAt(depth) == ch) {
+        end++;
+      }
+      keys[child] = ch;
+      children[child] = build(names, values, start, end, depth + 1);
+      start = end;
+    }
+    return new SymbolTrie<>(keys, children, value);
+  }
+
+  /**
+   * Get the node reached by following the given character
+   *
+   * @param ch the next character of the symbol
+   * @return the child node or null if no symbol continues with this character
+   */
+  public SymbolTrie<T> child(char ch) {
+    int idx = Arrays.binarySearch(keys, ch);
+    return idx < 0 ? null : children[idx];
+  }
+
+  /**
+   * Get the value of the symbol ending at this node
+   *
+   * @return the value or null if no symbol ends here
+   */
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * Look up the value of a complete symbol name
+   *
+   * @param name the symbol name
+   * @return the value or null if the name is not contained in the trie
+   */
+  public T get(CharSequence name) {
+    SymbolTrie<T> node = this;
+    for (int i = 0; i < name.length() && node != null; i++) {
+      node = node.child(name.charAt(i));
+    }
+    return node == null ? null : node.value;
+  }
+}
@@ -15,87 +15,251 @@
  */
 package net.objecthunter.exp4j.tokenizer;
 
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import net.objecthunter.exp4j.exception.ErrorCode;
+import net.objecthunter.exp4j.exception.ParseFailure;
 import net.objecthunter.exp4j.exception.UnknownFunctionOrVariableException;
+import net.objecthunter.exp4j.function.BinaryFunctionEnum;
 import net.objecthunter.exp4j.function.Function;
-import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.UnaryFunctionEnum;
+import net.objecthunter.exp4j.operator.BinaryOperators;
 import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.operator.Operators;
 
 public class Tokenizer {
 
-  private final char[] expression;
+  private static final SymbolTrie<Token> BUILTIN_FUNCTIONS = createBuiltinFunctions();
 
-  private final int expressionLength;
+  private static final Token IMPLICIT_MULTIPLICATION =
+      OperatorToken.of(BinaryOperators.MULTIPLICATION);
+
+  private final CharSequence expression;
 
-  private final Map<String, Function> userFunctions;
+  private final int expressionLength;
 
-  private final Map<String, Operator> userOperators;
+  private final SymbolTrie<Token> names;
 
-  private final Set<String> variableNames;
+  private final SymbolTrie<OperatorToken> userOperators;
 
   private final boolean implicitMultiplication;
 
+  /* throw lightweight ParseFailures instead of the usual exceptions */
+  private final boolean reportFailures;
+
   private int pos = 0;
 
+  /* whether the last token is a constant referred to by name, which may be followed by a number */
+  private boolean namedConstant;
+
   private Token lastToken;
 
   public Tokenizer(
-      String expression,
+      CharSequence expression,
       Map<String, Function> userFunctions,
       Map<String, Operator> userOperators,
       Set<String> variableNames,
       boolean implicitMultiplication) {
-    this.expression = expression.trim().toCharArray();
-    expressionLength = this.expression.length;
-    this.userFunctions = userFunctions;
-    this.userOperators = userOperators;
-    this.variableNames = variableNames;
-    this.implicitMultiplication = implicitMultiplication;
+    this(
+        expression,
+        createNames(userFunctions, variableNames),
+        createOperators(userOperators),
+        implicitMultiplication);
   }
 
   public Tokenizer(
-      String expression,
+      CharSequence expression,
       Map<String, Function> userFunctions,
       Map<String, Operator> userOperators,
       Set<String> variableNames) {
-    this.expression = expression.trim().toCharArray();
-    expressionLength = this.expression.length;
-    this.userFunctions = userFunctions;
+    this(expression, userFunctions, userOperators, variableNames, true);
+  }
+
+  /**
+   * Create a new instance using prebuilt symbol tries, see {@link #createNames(Map, Set)} and
+   * {@link #createOperators(Map)}. The tries are immutable, so they can be shared by any number
+   * of tokenizers.
+   *
+   * @param expression the expression to tokenize
+   * @param names the trie of the user declared functions and variables
+   * @param userOperators the trie of the user declared operators
+   * @param implicitMultiplication set to false to turn off implicit multiplication
+   */
+  public Tokenizer(
+      CharSequence expression,
+      SymbolTrie<Token> names,
+      SymbolTrie<OperatorToken> userOperators,
+      boolean implicitMultiplication) {
+    this(expression, names, userOperators, implicitMultiplication, false);
+  }
+
+  /**
+   * Create a new instance using prebuilt symbol tries, which reports syntax errors by throwing a
+   * {@link ParseFailure} if requested. Parse failures are much cheaper to create than the usual
+   * exceptions, since they have neither a stack trace nor a formatted message.
+   *
+   * @param expression the expression to tokenize
+   * @param names the trie of the user declared functions and variables
+   * @param userOperators the trie of the user declared operators
+   * @param implicitMultiplication set to false to turn off implicit multiplication
+   * @param reportFailures true to throw {@link ParseFailure}s instead of the usual exceptions
+   */
+  public Tokenizer(
+      CharSequence expression,
+      SymbolTrie<Token> names,
+      SymbolTrie<OperatorToken> userOperators,
+      boolean implicitMultiplication,
+      boolean reportFailures) {
+    this.expression = trim(expression);
+    expressionLength = this.expression.length();
+    this.names = names;
     this.userOperators = userOperators;
-    this.variableNames = variableNames;
-    implicitMultiplication = true;
+    this.implicitMultiplication = implicitMultiplication;
+    this.reportFailures = reportFailures;
+  }
+
+  /**
+   * Create the exception for a syntax error at the last char read
+   *
+   * @param code the code of the error, used for {@link ParseFailure}s
+   * @param message the message of the usual exception
+   * @return the exception to throw
+   */
+  public RuntimeException syntaxError(ErrorCode code, String message) {
+    return reportFailures
+        ? new ParseFailure(code, expression, Math.max(pos - 1, 0), 0)
+        : new IllegalArgumentException(message);
+  }
+
+  private RuntimeException invalidCharacter(char ch) {
+    return reportFailures
+        ? new ParseFailure(ErrorCode.INVALID_CHARACTER, expression, pos, 1)
+        : new IllegalArgumentException(
+            String.format("Unable to parse char '%s' (Code:%s) at [%s]", ch, ch, pos));
+  }
+
+  /**
+   * Strip leading and trailing whitespace like {@link String#trim()} does, but without copying
+   * the chars when there is nothing to strip. For views like {@link java.nio.CharBuffer} the
+   * stripped sequence is a view as well.
+   */
+  private static CharSequence trim(CharSequence expression) {
+    int start = 0;
+    int end = expression.length();
+    while (start < end && expression.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && expression.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return start == 0 && end == expression.length()
+        ? expression
+        : expression.subSequence(start, end);
+  }
+
+  private static SymbolTrie<Token> createBuiltinFunctions() {
+    Map<String, Token> functions = new HashMap<>();
+    for (Function f : UnaryFunctionEnum.values()) {
+      functions.put(f.getName(), FunctionToken.of(f));
+    }
+    for (Function f : BinaryFunctionEnum.values()) {
+      functions.put(f.getName(), FunctionToken.of(f));
+    }
+    return SymbolTrie.of(functions);
+  }
+
+  /**
+   * Create the trie of user declared names. Variables are added last so that they take precedence
+   * over functions of the same name.
+   *
+   * @param userFunctions the user declared functions, may be null
+   * @param variableNames the declared variable names, may be null
+   * @return the trie mapping the names to their tokens
+   */
+  public static SymbolTrie<Token> createNames(
+      Map<String, Function> userFunctions, Set<String> variableNames) {
+    return createNames(userFunctions, variableNames, Collections.emptyMap());
+  }
+
+  /**
+   * Create the trie of user declared names and named constants. The constants are emitted as
+   * number tokens, so their values are fixed when the expression is built. User declared
+   * functions and variables take precedence over constants of the same name.
+   *
+   * @param userFunctions the user declared functions, may be null
+   * @param variableNames the declared variable names, may be null
+   * @param constants the values of the named constants
+   * @return the trie mapping the names to their tokens
+   */
+  public static SymbolTrie<Token> createNames(
+      Map<String, Function> userFunctions,
+      Set<String> variableNames,
+      Map<String, Double> constants) {
+    Map<String, Token> names = new HashMap<>();
+    for (Map.Entry<String, Double> c : constants.entrySet()) {
+      names.put(c.getKey(), new NumberToken(c.getValue()));
+    }
+    if (userFunctions != null) {
+      for (Map.Entry<String, Function> f : userFunctions.entrySet()) {
+        names.put(f.getKey(), new FunctionToken(f.getValue()));
+      }
+    }
+    if (variableNames != null) {
+      for (String name : variableNames) {
+        names.put(name, new VariableToken(name));
+      }
+    }
+    return names.isEmpty() ? SymbolTrie.empty() : SymbolTrie.of(names);
+  }
+
+  /**
+   * Create the trie of user declared operators
+   *
+   * @param userOperators the user declared operators by symbol, may be null
+   * @return the trie mapping the symbols to the operator tokens
+   */
+  public static SymbolTrie<OperatorToken> createOperators(Map<String, Operator> userOperators) {
+    if (userOperators == null || userOperators.isEmpty()) {
+      return SymbolTrie.empty();
+    }
+    Map<String, OperatorToken> operators = new HashMap<>();
+    for (Map.Entry<String, Operator> o : userOperators.entrySet()) {
+      operators.put(o.getKey(), new OperatorToken(o.getValue()));
+    }
+    return SymbolTrie.of(operators);
   }
 
   public boolean hasNext() {
-    return expression.length > pos;
+    return expressionLength > pos;
   }
 
   public Token nextToken() {
-    char ch = expression[pos];
+    char ch = expression.charAt(pos);
+    /* only the token directly after a named constant may be a number */
+    boolean afterNamedConstant = namedConstant;
+    namedConstant = false;
 
     while (Character.isWhitespace(ch)) {
-      ch = expression[++pos];
+      ch = expression.charAt(++pos);
     }
 
     if (Character.isDigit(ch) || ch == '.') {
       if (lastToken != null) {
-        if (lastToken.getType() == TokenType.TOKEN_NUMBER) {
-          throw new IllegalArgumentException(
-              String.format("Unable to parse char '%s' (Code:%s) at [%s]", ch, ch, pos));
+        if (lastToken.getType() == TokenType.TOKEN_NUMBER && !afterNamedConstant) {
+          throw invalidCharacter(ch);
         }
 
         if (isNotOperatorOpenParenthesesFunctionSeparator(implicitMultiplication, lastToken)) {
           // insert an implicit multiplication token
-          lastToken = new OperatorToken(Operators.getBuiltinOperator('*', 2));
+          lastToken = IMPLICIT_MULTIPLICATION;
           return lastToken;
         }
       }
 
-      return parseNumberToken(ch);
+      return parseNumberToken();
     }
 
     if (isArgumentSeparator(ch)) {
@@ -106,7 +270,7 @@ public class Tokenizer {
       if (lastToken != null
           && isNotOperatorOpenParenthesesFunctionSeparator(implicitMultiplication, lastToken)) {
         // insert an implicit multiplication token
-        lastToken = new OperatorToken(Operators.getBuiltinOperator('*', 2));
+        lastToken = IMPLICIT_MULTIPLICATION;
 
         return lastToken;
       }
@@ -127,7 +291,7 @@ public class Tokenizer {
       if (lastToken != null
           && isNotOperatorOpenParenthesesFunctionSeparator(implicitMultiplication, lastToken)) {
         // insert an implicit multiplication token
-        lastToken = new OperatorToken(Operators.getBuiltinOperator('*', 2));
+        lastToken = IMPLICIT_MULTIPLICATION;
 
         return lastToken;
       }
@@ -135,8 +299,7 @@ public class Tokenizer {
       return parseFunctionOrVariable();
     }
 
-    throw new IllegalArgumentException(
-        String.format("Unable to parse char '%s' (Code:%s) at [%s]", ch, ch, pos));
+    throw invalidCharacter(ch);
   }
 
   private Token parseArgumentSeparatorToken() {
@@ -171,151 +334,147 @@ public class Tokenizer {
 
   private Token parseFunctionOrVariable() {
     int offset = pos;
-    int testPos;
-    int lastValidLen = 1;
+    int testPos = offset;
+    int lastValidLen = 0;
     Token lastValidToken = null;
-    int len = 1;
-
-    if (isEndOfExpression(offset)) {
-      pos++;
-    }
-
-    testPos = offset + len - 1;
-
-    while (!isEndOfExpression(testPos) && isVariableOrFunctionCharacter(expression[testPos])) {
-      String name = new String(expression, offset, len);
-
-      if (variableNames != null && variableNames.contains(name)) {
-        lastValidLen = len;
-        lastValidToken = new VariableToken(name);
-      } else {
-        Function f = getFunction(name);
 
-        if (f != null) {
-          lastValidLen = len;
-          lastValidToken = new FunctionToken(f);
-        }
+    /* walk the user and builtin tries in parallel and remember the longest match. User
+    declared names win over builtin functions of the same name */
+    SymbolTrie<Token> user = names;
+    SymbolTrie<Token> builtin = BUILTIN_FUNCTIONS;
+
+    while ((user != null || builtin != null)
+        && !isEndOfExpression(testPos)
+        && isVariableOrFunctionCharacter(expression.charAt(testPos))) {
+      char ch = expression.charAt(testPos++);
+      user = user == null ? null : user.child(ch);
+      builtin = builtin == null ? null : builtin.child(ch);
+
+      Token token = user == null ? null : user.getValue();
+      if (token == null && builtin != null) {
+        token = builtin.getValue();
       }
 
-      len++;
-
-      testPos = offset + len - 1;
+      if (token != null) {
+        lastValidLen = testPos - offset;
+        lastValidToken = token;
+      }
     }
 
     if (lastValidToken == null) {
-      throw new UnknownFunctionOrVariableException(new String(expression), pos, len);
+      while (!isEndOfExpression(testPos) && isVariableOrFunctionCharacter(expression.charAt(testPos))) {
+        testPos++;
+      }
+      if (reportFailures) {
+        throw new ParseFailure(
+            ErrorCode.UNKNOWN_FUNCTION_OR_VARIABLE, expression, pos, Math.max(testPos - offset, 1));
+      }
+      throw new UnknownFunctionOrVariableException(
+          expression.toString(), pos, Math.max(testPos - offset, 1) + 1);
     }
 
     pos += lastValidLen;
     lastToken = lastValidToken;
+    namedConstant = lastToken.getType() == TokenType.TOKEN_NUMBER;
 
     return lastToken;
   }
 
-  private Function getFunction(String name) {
-    Function f = null;
-
-    if (userFunctions != null) {
-      f = userFunctions.get(name);
-    }
-
-    if (f == null) {
-      f = Functions.getBuiltInFunction(name);
-    }
-
-    return f;
-  }
-
   private Token parseOperatorToken(char firstChar) {
     int offset = pos;
-    int len = 1;
-
-    StringBuilder symbol = new StringBuilder();
-    symbol.append(firstChar);
-
-    Operator lastValid = null;
-
-    while (!isEndOfExpression(offset + len)
-        && Operators.isAllowedOperatorChar(expression[offset + len])) {
-      symbol.append(expression[offset + len++]);
+    int testPos = offset;
+    int lastValidLen = 0;
+    OperatorToken lastValid = null;
+
+    /* greedily match the longest user operator symbol */
+    SymbolTrie<OperatorToken> node = userOperators;
+    while (node != null
+        && !isEndOfExpression(testPos)
+        && Operators.isAllowedOperatorChar(expression.charAt(testPos))) {
+      node = node.child(expression.charAt(testPos++));
+      if (node != null && node.getValue() != null) {
+        lastValid = node.getValue();
+        lastValidLen = testPos - offset;
+      }
     }
 
-    while (symbol.length() > 0) {
-      Operator op = getOperator(symbol.toString());
-      if (op == null) {
-        symbol.setLength(symbol.length() - 1);
-      } else {
-        lastValid = op;
-        break;
+    if (lastValid == null) {
+      Operator builtin = getBuiltinOperator(firstChar);
+      if (builtin == null && reportFailures) {
+        throw new ParseFailure(ErrorCode.UNKNOWN_OPERATOR, expression, pos, 1);
       }
+      lastValid = OperatorToken.of(builtin);
+      lastValidLen = 1;
     }
 
-    pos += symbol.length();
-    lastToken = new OperatorToken(lastValid);
+    pos += lastValidLen;
+    lastToken = lastValid;
     return lastToken;
   }
 
-  private Operator getOperator(String symbol) {
-    Operator op = null;
-    if (userOperators != null) {
-      op = userOperators.get(symbol);
-    }
-
-    if (op == null && symbol.length() == 1) {
-      int argc = 2;
+  private Operator getBuiltinOperator(char symbol) {
+    int argc = 2;
 
-      if (lastToken == null) {
+    if (lastToken == null) {
+      argc = 1;
+    } else {
+      TokenType lastTokenType = lastToken.getType();
+      if (lastTokenType == TokenType.TOKEN_PARENTHESES_OPEN
+          || lastTokenType == TokenType.TOKEN_SEPARATOR) {
         argc = 1;
-      } else {
-        TokenType lastTokenType = lastToken.getType();
-        if (lastTokenType == TokenType.TOKEN_PARENTHESES_OPEN
-            || lastTokenType == TokenType.TOKEN_SEPARATOR) {
+      } else if (lastTokenType == TokenType.TOKEN_OPERATOR) {
+        Operator lastOp = ((OperatorToken) lastToken).getOperator();
+        if (lastOp.getNumOperands() == 2
+            || (lastOp.getNumOperands() == 1 && !lastOp.isLeftAssociative())) {
           argc = 1;
-        } else if (lastTokenType == TokenType.TOKEN_OPERATOR) {
-          Operator lastOp = ((OperatorToken) lastToken).getOperator();
-          if (lastOp.getNumOperands() == 2
-              || (lastOp.getNumOperands() == 1 && !lastOp.isLeftAssociative())) {
-            argc = 1;
-          }
         }
       }
-
-      op = Operators.getBuiltinOperator(symbol.charAt(0), argc);
     }
 
-    return op;
+    return Operators.getBuiltinOperator(symbol, argc);
   }
 
-  private Token parseNumberToken(char firstChar) {
+  private Token parseNumberToken() {
     int offset = pos;
     int len = 1;
     pos++;
 
     if (isEndOfExpression(offset + len)) {
-      lastToken = new NumberToken(Double.parseDouble(String.valueOf(firstChar)));
+      lastToken = parseNumber(offset, len);
       return lastToken;
     }
 
     while (!isEndOfExpression(offset + len)
         && isNumeric(
-            expression[offset + len],
-            expression[offset + len - 1] == 'e' || expression[offset + len - 1] == 'E')) {
+            expression.charAt(offset + len),
+            expression.charAt(offset + len - 1) == 'e' || expression.charAt(offset + len - 1) == 'E')) {
       len++;
       pos++;
     }
 
     // check if the e is at the end
-    if (expression[offset + len - 1] == 'e' || expression[offset + len - 1] == 'E') {
+    if (expression.charAt(offset + len - 1) == 'e' || expression.charAt(offset + len - 1) == 'E') {
       // since the e is at the end it's not part of the number and a rollback is necessary
       len--;
       pos--;
     }
 
-    lastToken = NumberToken.of(expression, offset, len);
+    lastToken = parseNumber(offset, len);
 
     return lastToken;
   }
 
+  private Token parseNumber(int offset, int len) {
+    try {
+      return NumberToken.of(expression, offset, len);
+    } catch (NumberFormatException e) {
+      if (reportFailures) {
+        throw new ParseFailure(ErrorCode.INVALID_NUMBER, expression, offset, len);
+      }
+      throw e;
+    }
+  }
+
   private static boolean isNumeric(char ch, boolean lastCharE) {
     return Character.isDigit(ch)
         || ch == '.'
@@ -345,10 +504,9 @@ public class Tokenizer {
   }
 
   private static final Set<TokenType> NOT_CHAR_DOT_CLOSE_PARENTHESES =
-      new HashSet<>(
-          Arrays.asList(
-              TokenType.TOKEN_OPERATOR,
-              TokenType.TOKEN_PARENTHESES_OPEN,
-              TokenType.TOKEN_FUNCTION,
-              TokenType.TOKEN_SEPARATOR));
+      EnumSet.of(
+          TokenType.TOKEN_OPERATOR,
+          TokenType.TOKEN_PARENTHESES_OPEN,
+          TokenType.TOKEN_FUNCTION,
+          TokenType.TOKEN_SEPARATOR);
 }
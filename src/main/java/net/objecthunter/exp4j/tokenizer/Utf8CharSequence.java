@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.tokenizer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only {@link CharSequence} view of UTF-8 encoded bytes, so that expressions received as
+ * bytes can be tokenized without decoding them into a String first. The bytes are not copied and
+ * must not be modified while the view is in use.
+ */
+public final class Utf8CharSequence implements CharSequence {
+
+  private final byte[] bytes;
+
+  private final int offset;
+
+  private final int length;
+
+  private Utf8CharSequence(byte[] bytes, int offset, int length) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Create a char sequence for a range of UTF-8 encoded bytes. Pure ASCII input, which is what
+   * expressions almost always are, is wrapped without copying. Input containing multibyte
+   * sequences is decoded once into a {@link java.nio.CharBuffer}.
+   *
+   * @param bytes the UTF-8 encoded expression
+   * @param offset the index of the first byte
+   * @param length the number of bytes
+   * @return the chars of the expression
+   * @throws IllegalArgumentException if the bytes are not valid UTF-8
+   */
+  public static CharSequence of(byte[] bytes, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > bytes.length - length) {
+      throw new IndexOutOfBoundsException(
+          String.format(
+              "Range [%d, %d) out of bounds for length %d", offset, offset + length, bytes.length));
+    }
+    for (int i = offset; i < offset + length; i++) {
+      if (bytes[i] < 0) {
+        return decode(bytes, offset, length);
+      }
+    }
+    return new Utf8CharSequence(bytes, offset, length);
+  }
+
+  private static CharSequence decode(byte[] bytes, int offset, int length) {
+    try {
+      return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes, offset, length));
+    } catch (CharacterCodingException e) {
+      throw new IllegalArgumentException("The expression is not valid UTF-8", e);
+    }
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException(
+          String.format("Index %d out of bounds for length %d", index, length));
+    }
+    return (char) bytes[offset + index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException(
+          String.format("Range [%d, %d) out of bounds for length %d", start, end, length));
+    }
+    return new Utf8CharSequence(bytes, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+  }
+}
@@ -16,6 +16,7 @@
 
 package net.objecthunter.exp4j;
 
+import net.objecthunter.exp4j.exception.UnknownFunctionOrVariableException;
 import net.objecthunter.exp4j.function.AbstractFunction;
 import net.objecthunter.exp4j.function.Function;
 import net.objecthunter.exp4j.operator.AbstractOperator;
@@ -23,9 +24,18 @@ import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.operator.Operators;
 import org.junit.jupiter.api.Test;
 
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -2905,4 +2915,180 @@ class ExpressionBuilderTest {
                 .build();
         assertEquals(0d, 1000d * 0.12d, e.evaluate());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCharSequenceExpression() {
+        StringBuilder expression = new StringBuilder("  2 * x + 1  ");
+        Expression e = new ExpressionBuilder(expression)
+                .variable("x")
+                .build()
+                .setVariable("x", 3d);
+        assertEquals(7d, e.evaluate(), 0d);
+    }
+
+    @Test
+    void testCharBufferExpression() {
+        CharBuffer buffer = CharBuffer.wrap("ignored;log(x) * 2.5e1;ignored");
+        buffer.position(8).limit(22);
+        Expression e = new ExpressionBuilder(buffer)
+                .variable("x")
+                .build()
+                .setVariable("x", Math.E);
+        assertEquals(25d, e.evaluate(), 0d);
+    }
+
+    @Test
+    void testUtf8Expression() {
+        byte[] bytes = "xx 3*y - 1 xx".getBytes(StandardCharsets.UTF_8);
+        Expression e = new ExpressionBuilder(bytes, 2, 9)
+                .variable("y")
+                .build()
+                .setVariable("y", 2d);
+        assertEquals(5d, e.evaluate(), 0d);
+
+        bytes = "2π + φ".getBytes(StandardCharsets.UTF_8);
+        e = new ExpressionBuilder(bytes, 0, bytes.length).build();
+        assertEquals(2 * PI + 1.61803398874d, e.evaluate(), 0d);
+    }
+
+    @Test
+    void testUtf8ExpressionInvalid() {
+        byte[] bytes = {'1', '+', (byte) 0xC3};
+        assertThrows(IllegalArgumentException.class, () -> new ExpressionBuilder(bytes, 0, bytes.length));
+    }
+
+    @Test
+    void testBuildAll() {
+        ParserContext context = ParserContext.builder().variables("x").build();
+        List<String> formulas = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            formulas.add(i % 500 == 7 ? "x * unknown" : "x * " + i);
+        }
+        formulas.add("   ");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        BulkBuildResult result;
+        try {
+            result = ExpressionBuilder.buildAll(formulas, context, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(2001, result.size());
+        assertEquals(5, result.getErrorCount());
+        assertEquals(1996, result.getSuccessCount());
+        assertEquals(1996, result.getExpressions().size());
+        assertEquals(Arrays.asList(7, 507, 1007, 1507, 2000), new ArrayList<>(result.getErrors().keySet()));
+
+        assertTrue(result.isSuccess(3));
+        assertEquals(6d, result.getExpression(3).setVariable("x", 2).evaluate(), 0d);
+
+        assertFalse(result.isSuccess(507));
+        assertNull(result.getExpression(507));
+        UnknownFunctionOrVariableException error = (UnknownFunctionOrVariableException) result.getError(507);
+        assertEquals(4, error.getPosition());
+        assertEquals("unknown", error.getToken());
+        assertTrue(result.getError(2000) instanceof IllegalArgumentException);
+    }
+
+    @Test
+    void testConstantsInlined() {
+        Expression e = new ExpressionBuilder("2pi + e^x + φ π 2").variables("x").build();
+        assertEquals(Collections.singleton("x"), e.getVariableNames());
+        /* setting an inlined constant has no effect */
+        e.setVariable("x", 0d).setVariable("pi", 3d);
+        assertEquals(2 * PI + 1 + 1.61803398874d * PI * 2, e.evaluate(), 1e-12);
+    }
+
+    @Test
+    void testConstantFollowedByNumbers() {
+        /* only the number directly after a constant is multiplied implicitly */
+        assertThrows(IllegalArgumentException.class, () -> new ExpressionBuilder("e+1 2").build());
+        assertThrows(IllegalArgumentException.class, () -> new ExpressionBuilder("pi*2 3").build());
+    }
+
+    @Test
+    void testOverridableConstants() {
+        Expression e = new ExpressionBuilder("2pi + e").overridableConstants(true).build();
+        assertEquals(new HashSet<>(Arrays.asList("pi", "e")), e.getVariableNames());
+        assertEquals(2 * PI + E, e.evaluate(), 0d);
+        assertEquals(6 + E, e.setVariable("pi", 3d).evaluate(), 0d);
+
+        /* declaring a constant as a variable makes only this one overridable */
+        e = new ExpressionBuilder("2pi + e").variables("pi").build();
+        assertEquals(Collections.singleton("pi"), e.getVariableNames());
+        assertEquals(6 + E, e.setVariable("pi", 3d).evaluate(), 0d);
+
+        ParserContext context = ParserContext.builder().overridableConstants(true).build();
+        assertTrue(context.getVariableNames().contains("π"));
+        assertEquals(2d, context.expression("π").build().setVariable("π", 2d).evaluate(), 0d);
+        assertEquals(2d, ParserContext.builder().build().expression("π").overridableConstants(true).build()
+                .setVariable("π", 2d).evaluate(), 0d);
+    }
+
+    @Test
+    void testOverridableConstantsOfContextCanBeTurnedOff() {
+        ParserContext overridable = ParserContext.builder().variable("x").overridableConstants(true).build();
+        Expression e = overridable.expression("2pi x").overridableConstants(false).build();
+        assertEquals(Collections.singleton("x"), e.getVariableNames());
+        assertEquals(2 * PI, e.setVariable("x", 1d).setVariable("pi", 1d).evaluate(), 0d);
+        assertEquals(new HashSet<>(Arrays.asList("pi", "x")),
+                overridable.expression("2pi x").build().getVariableNames());
+
+        ParserContext inlined = ParserContext.builder().variable("x").build();
+        e = inlined.expression("2pi x").overridableConstants(true).build();
+        assertEquals(new HashSet<>(Arrays.asList("pi", "x")), e.getVariableNames());
+        assertEquals(2d, e.setVariable("x", 1d).setVariable("pi", 1d).evaluate(), 0d);
+        assertEquals(Collections.singleton("x"), inlined.expression("2pi x").build().getVariableNames());
+    }
+
+    @Test
+    void testEvaluateAsyncWithBindings() throws Exception {
+        Expression e = new ExpressionBuilder("x * y + z").variables("x", "y", "z").build().setVariable("z", 1d);
+        Map<String, Double> bindings = new HashMap<>();
+        bindings.put("x", 2d);
+        bindings.put("y", 3d);
+        CompletableFuture<Double> result = e.evaluateAsync(bindings);
+        /* the bindings are copied when the evaluation is submitted */
+        bindings.put("x", 100d);
+        assertEquals(7d, result.get(), 0d);
+        assertThrows(IllegalArgumentException.class, e::evaluate);
+
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<Double> failed = e.evaluateAsync(Collections.singletonMap("x", 1d), exec);
+            ExecutionException error = assertThrows(ExecutionException.class, failed::get);
+            assertTrue(error.getCause() instanceof IllegalArgumentException);
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    @Test
+    void testEvaluateAllAsync() throws Exception {
+        Expression e = new ExpressionBuilder("x * y + z").variables("x", "y", "z").build().setVariable("z", 1d);
+        List<Map<String, Double>> bindings = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, Double> row = new HashMap<>();
+            row.put("x", (double) i);
+            /* rows without y must not see the value of the previous row */
+            if (i % 2 == 0) {
+                row.put("y", 2d);
+            }
+            row.put("z", i % 3 == 0 ? 1d : 0d);
+            bindings.add(row);
+        }
+        e.setVariable("y", 1d);
+
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            double[] results = e.evaluateAllAsync(bindings, exec).get();
+            assertEquals(1000, results.length);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i * (i % 2 == 0 ? 2 : 1) + (i % 3 == 0 ? 1 : 0), results[i], 0d);
+            }
+        } finally {
+            exec.shutdown();
+        }
+        assertArrayEquals(new double[0], e.evaluateAllAsync(Collections.emptyList()).get());
+    }
+}
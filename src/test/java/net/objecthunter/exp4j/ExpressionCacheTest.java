@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.AbstractFunction;
+import net.objecthunter.exp4j.function.Function;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCacheTest {
+
+    @Test
+    void testHitAndMiss() {
+        ExpressionCache cache = new ExpressionCache(1 << 20);
+        Expression e1 = cache.get(new ExpressionBuilder("2x + 1").variable("x"));
+        Expression e2 = cache.get(new ExpressionBuilder("2x + 1").variable("x"));
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.size());
+        assertNotSame(e1, e2);
+
+        e1.setVariable("x", 1);
+        e2.setVariable("x", 2);
+        assertEquals(3d, e1.evaluate(), 0d);
+        assertEquals(5d, e2.evaluate(), 0d);
+    }
+
+    @Test
+    void testSameBuilderHits() {
+        ExpressionCache cache = new ExpressionCache(1 << 20);
+        ExpressionBuilder builder = new ExpressionBuilder("2pi x").variable("x").overridableConstants(true);
+        cache.get(builder);
+        cache.get(builder);
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void testConfigurationIsPartOfKey() {
+        ExpressionCache cache = new ExpressionCache(1 << 20);
+        Function twice = new AbstractFunction("f") {
+            @Override
+            public double apply(double... args) {
+                return 2 * args[0];
+            }
+        };
+        Function thrice = new AbstractFunction("f") {
+            @Override
+            public double apply(double... args) {
+                return 3 * args[0];
+            }
+        };
+
+        assertEquals(2d, cache.get(new ExpressionBuilder("f(1)").function(twice)).evaluate(), 0d);
+        assertEquals(3d, cache.get(new ExpressionBuilder("f(1)").function(thrice)).evaluate(), 0d);
+        cache.get(new ExpressionBuilder("x y").variables("x", "y"));
+        cache.get(new ExpressionBuilder("x y").variables("x", "y").implicitMultiplication(false));
+        cache.get(new ExpressionBuilder("x y").variables("x", "y", "z"));
+
+        assertEquals(5, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    void testEviction() {
+        ExpressionCache cache = new ExpressionCache(2000);
+        for (int i = 0; i < 100; i++) {
+            cache.get(new ExpressionBuilder("x * " + i).variable("x"));
+        }
+        assertTrue(cache.getWeight() <= 2000);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(100, cache.size() + cache.getEvictionCount());
+    }
+
+    @Test
+    void testEvictionKeepsReferencedEntries() {
+        ExpressionCache cache = new ExpressionCache(2000);
+        for (int i = 0; i < 100; i++) {
+            cache.get(new ExpressionBuilder("1 + 2"));
+            cache.get(new ExpressionBuilder("x * " + i).variable("x"));
+        }
+        long misses = cache.getMissCount();
+        cache.get(new ExpressionBuilder("1 + 2"));
+        assertEquals(misses, cache.getMissCount());
+    }
+
+    @Test
+    void testClear() {
+        ExpressionCache cache = new ExpressionCache(1 << 20);
+        cache.get(new ExpressionBuilder("1 + 2"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    void testConcurrentAccess() throws Exception {
+        ExpressionCache cache = new ExpressionCache(1 << 20);
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        List<Future<Double>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final int n = i % 10;
+            results.add(exec.submit(() -> cache.get(new ExpressionBuilder("x + " + n).variable("x"))
+                    .setVariable("x", n)
+                    .evaluate()));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(2d * (i % 10), results.get(i).get(), 0d);
+        }
+        exec.shutdown();
+        assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(10, cache.size());
+        assertEquals(1000, cache.getHitCount() + cache.getMissCount());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.AbstractFunction;
+import net.objecthunter.exp4j.function.Function;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionGroupTest {
+
+    private static final ParserContext CONTEXT = ParserContext.builder()
+            .variables("price", "discount", "tax", "qty")
+            .build();
+
+    private static List<Expression> build(ParserContext context, String... formulas) {
+        List<Expression> expressions = new ArrayList<>();
+        for (String formula : formulas) {
+            expressions.add(context.expression(formula).build());
+        }
+        return expressions;
+    }
+
+    @Test
+    void testSharedSubexpressions() {
+        List<Expression> expressions = build(CONTEXT,
+                "price * (1 - discount) * (1 + tax)",
+                "price * (1 - discount) * qty",
+                "price * (1 - discount)");
+        ExpressionGroup group = ExpressionGroup.of(expressions);
+
+        /* price, discount, tax, qty, 1, 1 - discount, price * (1 - discount), 1 + tax and the
+        two products of the first two expressions */
+        assertEquals(10, group.getNodeCount());
+        assertEquals(3, group.size());
+        assertEquals(new HashSet<>(Arrays.asList("price", "discount", "tax", "qty")), group.getVariableNames());
+
+        Map<String, Double> variables = new HashMap<>();
+        variables.put("price", 200d);
+        variables.put("discount", 0.25);
+        variables.put("tax", 0.2);
+        variables.put("qty", 3d);
+        double[] results = group.evaluate(variables);
+        for (int i = 0; i < expressions.size(); i++) {
+            assertEquals(expressions.get(i).setVariables(variables).evaluate(), results[i], 0d);
+        }
+    }
+
+    @Test
+    void testBatchEvaluation() {
+        List<Expression> expressions = build(CONTEXT,
+                "price * (1 - discount) * (1 + tax)",
+                "sqrt(price) + 2pi",
+                "qty",
+                "qty");
+        ExpressionGroup group = ExpressionGroup.of(expressions);
+
+        int rows = 100;
+        Map<String, double[]> columns = new HashMap<>();
+        for (String name : group.getVariableNames()) {
+            double[] column = new double[rows];
+            for (int r = 0; r < rows; r++) {
+                column[r] = r * 0.01 + name.length();
+            }
+            columns.put(name, column);
+        }
+        double[][] results = group.evaluate(columns, rows);
+
+        assertEquals(4, results.length);
+        for (int r = 0; r < rows; r++) {
+            for (int i = 0; i < expressions.size(); i++) {
+                Expression e = expressions.get(i);
+                for (String name : e.getVariableNames()) {
+                    if (columns.containsKey(name)) {
+                        e.setVariable(name, columns.get(name)[r]);
+                    }
+                }
+                assertEquals(e.evaluate(), results[i][r], 0d);
+            }
+        }
+        /* results never alias the input or each other */
+        assertNotSame(columns.get("qty"), results[2]);
+        assertNotSame(results[2], results[3]);
+    }
+
+    @Test
+    void testSharedSubexpressionComputedOncePerRow() {
+        AtomicInteger calls = new AtomicInteger();
+        Function norm = new AbstractFunction("norm", 2) {
+            @Override
+            public double apply(double... args) {
+                calls.incrementAndGet();
+                return Math.hypot(args[0], args[1]);
+            }
+        };
+        ParserContext context = ParserContext.builder().function(norm).variables("x", "y").build();
+        ExpressionGroup group = ExpressionGroup.of(build(context,
+                "x / norm(x, y)",
+                "y / norm(x, y)",
+                "norm(x, y) ^ 2"));
+
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[]{3, 6, 0});
+        columns.put("y", new double[]{4, 8, 1});
+        double[][] results = group.evaluate(columns, 3);
+
+        assertEquals(3, calls.get());
+        assertArrayEquals(new double[]{0.6, 0.6, 0}, results[0], 1e-15);
+        assertArrayEquals(new double[]{0.8, 0.8, 1}, results[1], 1e-15);
+        assertArrayEquals(new double[]{25, 100, 1}, results[2], 1e-12);
+    }
+
+    @Test
+    void testSharedTable() {
+        SubexpressionTable table = new SubexpressionTable();
+        ExpressionGroup first = ExpressionGroup.of(build(CONTEXT, "price * (1 - discount)"), table);
+        int size = table.size();
+        ExpressionGroup second = ExpressionGroup.of(build(CONTEXT, "price * (1 - discount) + tax"), table);
+
+        assertEquals(5, first.getNodeCount());
+        assertEquals(7, second.getNodeCount());
+        assertEquals(size + 2, table.size());
+        table.clear();
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void testInvalidExpression() {
+        List<Expression> expressions = build(CONTEXT, "price +");
+        assertThrows(IllegalArgumentException.class, () -> ExpressionGroup.of(expressions));
+    }
+
+    @Test
+    void testMissingVariable() {
+        ExpressionGroup group = ExpressionGroup.of(build(CONTEXT, "price * qty"));
+        Map<String, Double> variables = Collections.singletonMap("price", 1d);
+        assertThrows(IllegalArgumentException.class, () -> group.evaluate(variables));
+
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("price", new double[]{1, 2});
+        columns.put("qty", new double[]{1});
+        assertThrows(IllegalArgumentException.class, () -> group.evaluate(columns, 2));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.exception.ParseFailure;
+import net.objecthunter.exp4j.function.AbstractFunction;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.AbstractOperator;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.SymbolTrie;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.Tokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionParserTest {
+
+    /* fragments of valid and invalid expressions, including overlapping names and operators */
+    private static final String[] FRAGMENTS = {
+        "1", "2.5", "3e2", "4E-1", "1e", ".5", "7.", "1.2.3", "x", "y", "xy", "x2", "pi", "e", "π",
+        "sin", "max", "log10", "f", "fx", "(", ")", "[", "}", ",", "+", "-", "*", "/", "^", "%",
+        "!", "**", "<", " ", "  ", "$", "_q", "2pi", "pie", "é"
+    };
+
+    private static final Set<String> VARIABLES = new HashSet<>(Arrays.asList("x", "y", "xy", "x2"));
+
+    /* enough variables for the builder to look names up in a table instead of comparing them */
+    private static final Set<String> MANY_VARIABLES = new HashSet<>(Arrays.asList(
+            "x", "y", "xy", "x2", "pie", "sinx", "_q", "é", "v1", "v2", "v3", "v4"));
+
+    private static final Map<String, Function> FUNCTIONS = new HashMap<>();
+
+    private static final Map<String, Operator> OPERATORS = new HashMap<>();
+
+    static {
+        FUNCTIONS.put("f", new AbstractFunction("f") {
+            @Override
+            public double apply(double... args) {
+                return args[0];
+            }
+        });
+        FUNCTIONS.put("fx", new AbstractFunction("fx", 2) {
+            @Override
+            public double apply(double... args) {
+                return args[0] - args[1];
+            }
+        });
+        OPERATORS.put("!", new AbstractOperator("!", 1, true, Operators.PRECEDENCE_POWER + 1) {
+            @Override
+            public double apply(double... args) {
+                return args[0];
+            }
+        });
+        OPERATORS.put("**", new AbstractOperator("**", 2, false, Operators.PRECEDENCE_POWER) {
+            @Override
+            public double apply(double... args) {
+                return Math.pow(args[0], args[1]);
+            }
+        });
+    }
+
+    @Test
+    void testSameProgramAsShuntingYard() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder expression = new StringBuilder();
+            int fragments = 1 + random.nextInt(12);
+            for (int j = 0; j < fragments; j++) {
+                expression.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertSameProgram(expression.toString(), random.nextBoolean(), random.nextBoolean(),
+                    random.nextBoolean() ? VARIABLES : MANY_VARIABLES);
+        }
+    }
+
+    @Test
+    void testSameProgramForExamples() {
+        String[] examples = {
+            "2 + 3 * 4 - 1", "-2^2", "2^-3^2", "max(1, -2) * sin(x)^2", "f(x)!", "2 ** 3 ** 2",
+            "3x(y + 1)", "2pi x", "pi2", "((x))", "()", "(())", "1 +", "+", "1 2", "max(1,)",
+            "1, 2", "x)", "(x", "f x, 2", "-(-(-x))", "x!!", "sin cos x", " 1 + 1 ",
+            "[1 + 2} * {3]", "log10(100)"
+        };
+        for (String example : examples) {
+            assertSameProgram(example, true, false, VARIABLES);
+            assertSameProgram(example, false, true, VARIABLES);
+            assertSameProgram(example, true, true, MANY_VARIABLES);
+        }
+    }
+
+    @Test
+    void testOffsets() {
+        Set<String> variables = new HashSet<>(Arrays.asList("x", "y"));
+        ExpressionParser parser = new ExpressionParser(
+                " 2x + sin(y)", variables, FUNCTIONS, true, Tokenizer.createOperators(OPERATORS), true, false)
+                .recordOffsets();
+        Program program = parser.parse(FUNCTIONS.keySet());
+
+        /* 2 x * y sin +, the implicit multiplication is at the variable it precedes, the leading
+        whitespace is counted and the index after the last instruction is at the end */
+        assertEquals(6, program.length);
+        int[] offsets = new int[7];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = parser.instructionOffset(i);
+        }
+        assertArrayEquals(new int[] {1, 2, 2, 10, 6, 4, 12}, offsets);
+        assertEquals(3, parser.toExpressionOffset(2));
+    }
+
+    private static void assertSameProgram(String expression, boolean implicitMultiplication,
+                                          boolean overridableConstants, Set<String> variables) {
+        SymbolTrie<OperatorToken> operators = Tokenizer.createOperators(OPERATORS);
+        Set<String> parserVariables = new HashSet<>(variables);
+        NameTable contextNames =
+                ExpressionBuilder.createNames(parserVariables, FUNCTIONS, overridableConstants);
+        Map<String, Double> constants =
+                overridableConstants ? Collections.emptyMap() : Expression.DEFAULT_VARIABLES;
+        SymbolTrie<Token> names = Tokenizer.createNames(FUNCTIONS, parserVariables, constants);
+
+        for (boolean reportFailures : new boolean[] {false, true}) {
+            String expected = describe(() -> Program.compile(reportFailures
+                    ? ShuntingYard.convertToRPNReportingFailures(expression, names, operators, implicitMultiplication)
+                    : ShuntingYard.convertToRPN(expression, names, operators, implicitMultiplication),
+                    FUNCTIONS.keySet()));
+            String fromContext = describe(() -> new ExpressionParser(
+                    expression, contextNames, operators, implicitMultiplication, reportFailures)
+                    .parse(FUNCTIONS.keySet()));
+            String fromBuilder = describe(() -> new ExpressionParser(
+                    expression, parserVariables, FUNCTIONS, !overridableConstants, operators,
+                    implicitMultiplication, reportFailures)
+                    .parse(FUNCTIONS.keySet()));
+            assertEquals(expected, fromContext, expression);
+            assertEquals(expected, fromBuilder, expression);
+        }
+    }
+
+    private static String describe(Supplier<Program> parse) {
+        Program program;
+        try {
+            program = parse.get();
+        } catch (ParseFailure e) {
+            return e.getCode() + " at " + e.getPosition() + ": " + e.getSubject();
+        } catch (RuntimeException e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+        return Arrays.toString(program.code) + " " + program.length + " "
+                + Arrays.toString(program.constants) + " " + Arrays.toString(program.variables) + " "
+                + Arrays.toString(program.functions) + " " + Arrays.toString(program.operators) + " "
+                + program.maxStackDepth;
+    }
+}
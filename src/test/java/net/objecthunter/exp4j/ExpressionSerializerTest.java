@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.AbstractFunction;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.AbstractOperator;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionSerializerTest {
+
+    private static final Function TWICE = new AbstractFunction("twice") {
+        @Override
+        public double apply(double... args) {
+            return 2 * args[0];
+        }
+    };
+
+    private static final Operator MOD = new AbstractOperator("%%", 2, true, Operators.PRECEDENCE_MODULO) {
+        @Override
+        public double apply(double... args) {
+            return Math.floorMod((long) args[0], (long) args[1]);
+        }
+    };
+
+    private static final ParserContext CONTEXT = ParserContext.builder()
+            .function(TWICE)
+            .operator(MOD)
+            .variables("x", "y")
+            .build();
+
+    @Test
+    void testRoundTrip() throws IOException {
+        String[] formulas = {
+                "twice(x) + 3 * y",
+                "-x^2 + sin(y) / 3.5e-3",
+                "17 %% x + pi",
+                "log(x) * log(x) - 0.1 * 0.1",
+                "2x y"
+        };
+        List<Expression> expressions = new ArrayList<>();
+        for (String formula : formulas) {
+            expressions.add(CONTEXT.expression(formula).build());
+        }
+
+        List<Expression> loaded = ExpressionSerializer.read(ByteBuffer.wrap(serialize(expressions)), CONTEXT);
+
+        assertEquals(formulas.length, loaded.size());
+        for (int i = 0; i < formulas.length; i++) {
+            Expression expected = expressions.get(i).setVariable("x", 5).setVariable("y", 0.25);
+            Expression actual = loaded.get(i).setVariable("x", 5).setVariable("y", 0.25);
+            assertEquals(expected.getVariableNames(), actual.getVariableNames());
+            assertEquals(expected.evaluate(), actual.evaluate(), 0d, formulas[i]);
+        }
+    }
+
+    @Test
+    void testMemoryMappedFile(@TempDir Path dir) throws IOException {
+        List<Expression> expressions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expressions.add(CONTEXT.expression("x * " + i + " + twice(y)").build());
+        }
+        Path file = dir.resolve("formulas.bin");
+        ExpressionSerializer.write(expressions, file);
+
+        List<Expression> loaded = ExpressionSerializer.read(file, CONTEXT);
+        assertEquals(1000, loaded.size());
+        for (int i = 0; i < 1000; i++) {
+            Expression e = loaded.get(i).setVariable("x", 2).setVariable("y", 3);
+            assertEquals(2 * i + 6, e.evaluate(), 0d);
+        }
+    }
+
+    @Test
+    void testInvalidExpressionRoundTrip() throws IOException {
+        /* expressions which can be built but are not valid keep failing validation after loading */
+        Expression e = new ExpressionBuilder("1 +").build();
+        List<Expression> loaded = ExpressionSerializer.read(
+                ByteBuffer.wrap(serialize(Collections.singletonList(e))), CONTEXT);
+        assertFalse(loaded.get(0).validate().isValid());
+    }
+
+    @Test
+    void testMissingFunction() throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(serialize(Arrays.asList(
+                CONTEXT.expression("x + 1").build(),
+                CONTEXT.expression("twice(x)").build())));
+        ParserContext other = ParserContext.builder().variable("x").build();
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> ExpressionSerializer.read(data, other));
+        assertTrue(e.getMessage().contains("'twice'"), e.getMessage());
+        assertTrue(e.getMessage().contains("#1"), e.getMessage());
+    }
+
+    @Test
+    void testFunctionWithDifferentArity() throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(serialize(Collections.singletonList(
+                CONTEXT.expression("twice(x)").build())));
+        ParserContext other = ParserContext.builder()
+                .function(new AbstractFunction("twice", 2) {
+                    @Override
+                    public double apply(double... args) {
+                        return 2 * args[0] * args[1];
+                    }
+                })
+                .variable("x")
+                .build();
+
+        assertThrows(IllegalArgumentException.class, () -> ExpressionSerializer.read(data, other));
+    }
+
+    @Test
+    void testMissingOperator() throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(serialize(Collections.singletonList(
+                CONTEXT.expression("x %% 2").build())));
+        ParserContext other = ParserContext.builder().variable("x").build();
+
+        assertThrows(IllegalArgumentException.class, () -> ExpressionSerializer.read(data, other));
+    }
+
+    @Test
+    void testMalformedData() throws IOException {
+        byte[] data = serialize(Collections.singletonList(CONTEXT.expression("x + 1").build()));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionSerializer.read(ByteBuffer.wrap(data, 0, data.length - 1), CONTEXT));
+
+        byte[] wrongVersion = data.clone();
+        wrongVersion[7]++;
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionSerializer.read(ByteBuffer.wrap(wrongVersion), CONTEXT));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionSerializer.read(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), CONTEXT));
+    }
+
+    @Test
+    void testCorruptCounts() throws IOException {
+        byte[] data = serialize(Collections.singletonList(CONTEXT.expression("x + 1").build()));
+
+        byte[] negativeCount = data.clone();
+        Arrays.fill(negativeCount, 8, 12, (byte) 0xFF);
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionSerializer.read(ByteBuffer.wrap(negativeCount), CONTEXT));
+
+        /* the number of constants at offset 16 replaced by varints decoding to -1 and Integer.MAX_VALUE */
+        byte[][] counts = {
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F},
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}
+        };
+        for (byte[] count : counts) {
+            ByteBuffer corrupt = ByteBuffer.allocate(data.length + count.length - 1);
+            corrupt.put(data, 0, 16).put(count).put(data, 17, data.length - 17).flip();
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> ExpressionSerializer.read(corrupt, CONTEXT));
+            assertTrue(e.getMessage().contains("offset 16"), e.getMessage());
+        }
+    }
+
+    private static byte[] serialize(List<Expression> expressions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExpressionSerializer.write(expressions, out);
+        return out.toByteArray();
+    }
+}
@@ -22,9 +22,15 @@ import net.objecthunter.exp4j.operator.Operators;
 import net.objecthunter.exp4j.tokenizer.*;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -254,5 +260,228 @@ class ExpressionTest {
         }
 
     }
-}
 
+    @Test
+    void testFootprint() {
+        /* 12 tokens each: 3 variables, 3 constants, 5 operators and 1 function */
+        ParserContext context = ParserContext.builder().variables("x", "y", "z").build();
+        int count = 20_000;
+        Expression[] expressions = new Expression[count];
+        long estimated = 0;
+        long before = usedMemory();
+        for (int i = 0; i < count; i++) {
+            expressions[i] = context.expression("x * " + i + " + sin(y) / (z - " + (i + 1) + ") ^ 2").build();
+            estimated += expressions[i].estimateSize();
+        }
+        long measured = usedMemory() - before;
+
+        double bytesPerToken = (double) measured / (12 * count);
+        System.out.printf("Expression footprint: %.1f bytes per token measured, %.1f estimated%n",
+                bytesPerToken, (double) estimated / (12 * count));
+        /* the documented figure is about 23 bytes per token for expressions of this size, the bound
+        is generous since the measurement depends on the garbage collector */
+        assertTrue(bytesPerToken < 32, "Footprint of " + bytesPerToken + " bytes per token");
+        assertEquals(12, expressions[count - 1].getProgram().length);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    @Test
+    void testCanonicalForm() {
+        ParserContext context = ParserContext.builder().variables("x", "y", "a", "b", "c").build();
+        Expression first = context.expression("y + 2*x").build();
+        Expression second = context.expression("2x+y").build();
+
+        assertEquals("y + 2 * x", first.canonicalForm());
+        assertEquals(first.canonicalForm(), second.canonicalForm());
+        assertEquals(first.semanticHash(), second.semanticHash());
+
+        assertEquals(context.expression("x * 2.0").build().canonicalForm(),
+                context.expression("{2} x").build().canonicalForm());
+        assertEquals(context.expression("[a + b] * c").build().canonicalForm(),
+                context.expression("c*((b+a))").build().canonicalForm());
+        assertEquals("cos(x) ^ 2 + sin(x) ^ 2",
+                context.expression("sin(x)^2 + cos(x)^2").build().canonicalForm());
+    }
+
+    @Test
+    void testCanonicalFormKeepsStructure() {
+        ParserContext context = ParserContext.builder().variables("x", "y", "a", "b", "c").build();
+        String[][] different = {
+                {"(a + b) + c", "a + (b + c)"},
+                {"a - b", "b - a"},
+                {"a / b", "b / a"},
+                {"-x^2", "(-x)^2"},
+                {"2^3^2", "(2^3)^2"},
+                {"a * b * c", "a * (b * c)"}
+        };
+        for (String[] pair : different) {
+            Expression first = context.expression(pair[0]).build();
+            Expression second = context.expression(pair[1]).build();
+            assertNotEquals(first.canonicalForm(), second.canonicalForm(), pair[0]);
+            assertNotEquals(first.semanticHash(), second.semanticHash(), pair[0]);
+        }
+    }
+
+    @Test
+    void testCanonicalFormCanBeParsed() {
+        ParserContext context = ParserContext.builder().variables("x", "y").build();
+        String[] expressions = {
+                "-x^2 + 3 * -y", "(-x)^2", "2^3^2", "(2^3)^2", "x - (y - 1)", "(x - y) - 1",
+                "x / (y * 3)", "-(x + y)", "-(-x)", "log(x) * sqrt(y)", "1e-7 * x + 1.5E22",
+                "x % 3 / y", "2^-x"
+        };
+        for (String expression : expressions) {
+            Expression e = context.expression(expression).build();
+            String canonical = e.canonicalForm();
+            Expression parsed = context.expression(canonical).build();
+            assertEquals(canonical, parsed.canonicalForm(), expression);
+            e.setVariable("x", 1.75).setVariable("y", 0.5);
+            parsed.setVariable("x", 1.75).setVariable("y", 0.5);
+            assertEquals(e.evaluate(), parsed.evaluate(), 0d, expression);
+        }
+    }
+
+    @Test
+    void testCanonicalFormSpecialConstants() {
+        ParserContext context = ParserContext.builder().variables("x").build();
+        assertEquals("1e999 + x", context.expression("1e400 + x").build().canonicalForm());
+        Expression power = new ExpressionBuilder("a^x").variables("a", "x")
+                .scope(VariableScope.EMPTY.with("a", -2d)).build();
+        assertEquals("(-2) ^ x", power.canonicalForm());
+        assertEquals(4d, context.expression(power.canonicalForm()).build().setVariable("x", 2d).evaluate(), 0d);
+
+        double[] constants = {-2, -0.5, -0d, 0d, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        String[] expressions = {"a ^ x", "x ^ a", "-a", "a - x", "x - a", "1 / a", "a"};
+        for (double a : constants) {
+            for (String expression : expressions) {
+                Expression e = new ExpressionBuilder(expression).variables("a", "x")
+                        .scope(VariableScope.EMPTY.with("a", a)).build();
+                String canonical = e.canonicalForm();
+                Expression parsed = context.expression(canonical).build();
+                String message = expression + " with a = " + a + ": " + canonical;
+                e.setVariable("x", 2d);
+                parsed.setVariable("x", 2d);
+                assertEquals(Double.doubleToLongBits(e.evaluate()), Double.doubleToLongBits(parsed.evaluate()),
+                        message);
+            }
+        }
+    }
+
+    @Test
+    void testCanonicalFormInvalidExpression() {
+        Expression e = new ExpressionBuilder("1 +").build();
+        assertThrows(IllegalArgumentException.class, e::canonicalForm);
+    }
+
+    @Test
+    void testCanonicalFormUserOperators() {
+        Operator factorial = new AbstractOperator("!", 1, true, Operators.PRECEDENCE_POWER + 1) {
+            @Override
+            public double apply(double... args) {
+                double result = 1;
+                for (int i = 2; i <= (int) args[0]; i++) {
+                    result *= i;
+                }
+                return result;
+            }
+        };
+        Expression e = new ExpressionBuilder("3! + [1+2]!").operator(factorial).build();
+        assertEquals("(1 + 2)! + 3!", e.canonicalForm());
+        assertEquals(12d, new ExpressionBuilder(e.canonicalForm()).operator(factorial).build().evaluate(), 0d);
+    }
+
+    @Test
+    void testStructureValidatedAtBuildTime() {
+        Expression e = new ExpressionBuilder("1 + 2 * (3 - x) / pow(x, 4)").variables("x").build();
+        assertEquals(4, e.getProgram().maxStackDepth);
+        assertThrows(IllegalArgumentException.class, e::evaluate);
+        assertEquals(1d + 2d * (3d - 2d) / 16d, e.setVariable("x", 2d).evaluate(), 0d);
+
+        Expression invalid = new ExpressionBuilder("1 +").build();
+        assertEquals(-1, invalid.getProgram().maxStackDepth);
+        assertFalse(invalid.validate().isValid());
+        assertThrows(IllegalArgumentException.class, invalid::evaluate);
+    }
+
+    @Test
+    void testCopySharesProgram() {
+        StringBuilder formula = new StringBuilder("x");
+        for (int i = 0; i < 500; i++) {
+            formula.append(" + sin(x * ").append(i).append(") * y");
+        }
+        Expression e = new ExpressionBuilder(formula.toString()).variables("x", "y").build();
+        e.setVariable("x", 1d);
+        Expression copy = new Expression(e);
+
+        assertSame(e.getProgram(), copy.getProgram());
+        /* only the object and the two variable slots are new */
+        assertTrue(copy.estimateSize() - e.getProgram().estimateSize() <= 48);
+
+        copy.setVariable("y", 2d);
+        assertThrows(IllegalArgumentException.class, e::evaluate);
+        e.setVariable("x", 3d).setVariable("y", 4d);
+        double expected = 1;
+        for (int i = 0; i < 500; i++) {
+            expected += Math.sin(i) * 2;
+        }
+        assertEquals(expected, copy.evaluate(), 1e-9);
+    }
+
+    @Test
+    void testPrimitiveFunctionAdapters() {
+        Expression e = new ExpressionBuilder("a * x^2 + y").variables("a", "x", "y").build();
+        assertThrows(IllegalArgumentException.class, () -> e.asDoubleUnaryOperator("x"));
+        e.setVariable("a", 2d).setVariable("y", 1d);
+
+        DoubleUnaryOperator f = e.asDoubleUnaryOperator("x");
+        DoubleBinaryOperator g = e.asDoubleBinaryOperator("x", "y");
+        ToDoubleFunction<double[]> h = e.asFunction("y", "a", "x");
+        /* later changes to the expression do not affect the functions */
+        e.setVariable("a", 100d);
+
+        assertEquals(19d, f.applyAsDouble(3d), 0d);
+        assertEquals(23d, g.applyAsDouble(3d, 5d), 0d);
+        assertEquals(5d + 3d * 4d, h.applyAsDouble(new double[]{5d, 3d, 2d}), 0d);
+        assertEquals(Arrays.asList(3d, 9d, 33d),
+                DoubleStream.of(1, 2, 4).parallel().map(f).boxed().collect(Collectors.toList()));
+
+        /* a variable not used by the expression is ignored */
+        assertEquals(5d, new ExpressionBuilder("5").variables("x").build().asDoubleUnaryOperator("x")
+                .applyAsDouble(1d), 0d);
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExpressionBuilder("x +").variables("x").build().asDoubleUnaryOperator("x"));
+        assertThrows(IllegalArgumentException.class, () -> e.asDoubleUnaryOperator("sin"));
+    }
+
+    @Test
+    void testVariableProvider() {
+        Expression e = new ExpressionBuilder("x * x + y + z").variables("x", "y", "z", "unused").build()
+                .setVariable("z", 1d);
+        List<String> fetched = new ArrayList<>();
+        VariableProvider provider = name -> {
+            fetched.add(name);
+            return name.equals("x") ? 3d : 2d;
+        };
+
+        assertEquals(12d, e.evaluateWith(provider), 0d);
+        /* every variable is fetched once, set and unused variables are not fetched at all */
+        assertEquals(Arrays.asList("x", "y"), fetched);
+        /* the fetched values are not kept */
+        assertThrows(IllegalArgumentException.class, e::evaluate);
+        e.evaluateWith(provider);
+        assertEquals(Arrays.asList("x", "y", "x", "y"), fetched);
+
+        assertThrows(IllegalArgumentException.class, () -> e.evaluateWith(name -> {
+            throw new IllegalArgumentException("No value for " + name);
+        }));
+    }
+}
@@ -15,13 +15,20 @@
  */
 package net.objecthunter.exp4j;
 
+import net.objecthunter.exp4j.exception.ErrorCode;
 import net.objecthunter.exp4j.function.AbstractFunction;
 import net.objecthunter.exp4j.function.Function;
 import org.junit.jupiter.api.Test;
 
+import java.util.Collections;
 import java.util.Date;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ExpressionValidateTest {
@@ -306,4 +313,111 @@ class ExpressionValidateTest {
         assertTrue(e.validate().isValid());
     }
 
+    @Test
+    void testValidationReport() {
+        ValidationReport report = new ValidationReport();
+        Expression e = new ExpressionBuilder("x + y + 1 +")
+                .variables("x", "y")
+                .build();
+        e.setVariable("x", 1d);
+        assertFalse(e.validate(report, true));
+        assertEquals(2, report.getErrorCount());
+        assertEquals(ErrorCode.VARIABLE_NOT_SET, report.getErrorCode(0));
+        assertEquals("y", report.getSubject(0));
+        assertEquals(1, report.getPosition(0));
+        assertEquals(ErrorCode.TOO_MANY_OPERATORS, report.getErrorCode(1));
+        assertEquals(e.validate(true).getErrors(), report.getMessages());
+
+        /* the report is cleared when reused */
+        e.setVariable("y", 2d);
+        assertFalse(e.validate(report, true));
+        assertEquals(1, report.getErrorCount());
+        assertTrue(new ExpressionBuilder("2 * 3").build().validate(report, true));
+        assertTrue(report.isValid());
+        assertSame(ValidationResult.SUCCESS, report.toValidationResult());
+    }
+
+    @Test
+    void testTryBuild() {
+        ValidationReport report = new ValidationReport();
+        Expression e = new ExpressionBuilder("2x + 1").variables("x").tryBuild(report);
+        assertNotNull(e);
+        assertTrue(report.isValid());
+        assertEquals(7d, e.setVariable("x", 3d).evaluate(), 0d);
+
+        assertNull(new ExpressionBuilder("2 * foo").tryBuild(report));
+        assertEquals(ErrorCode.UNKNOWN_FUNCTION_OR_VARIABLE, report.getErrorCode(0));
+        assertEquals(4, report.getPosition(0));
+        assertEquals("foo", report.getSubject(0));
+
+        assertNull(new ExpressionBuilder("(1 + 2").tryBuild(report));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, report.getErrorCode(0));
+
+        assertNull(new ExpressionBuilder("1 + 2)").tryBuild(report));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, report.getErrorCode(0));
+        assertEquals(5, report.getPosition(0));
+
+        assertNull(new ExpressionBuilder("1 + $").tryBuild(report));
+        assertEquals(ErrorCode.UNKNOWN_OPERATOR, report.getErrorCode(0));
+        assertEquals("$", report.getSubject(0));
+
+        assertNull(new ExpressionBuilder("1 + @").tryBuild(report));
+        assertEquals(ErrorCode.INVALID_CHARACTER, report.getErrorCode(0));
+        assertEquals(4, report.getPosition(0));
+
+        assertNull(new ExpressionBuilder("1 ,2").tryBuild(report));
+        assertEquals(ErrorCode.MISPLACED_SEPARATOR, report.getErrorCode(0));
+
+        assertNull(new ExpressionBuilder("beta(1)").function(beta).tryBuild(report));
+        assertEquals(ErrorCode.NOT_ENOUGH_ARGUMENTS, report.getErrorCode(0));
+        assertEquals("Not enough arguments for 'beta'", report.getMessage(0));
+
+        assertNull(new ExpressionBuilder("x y").variables("x", "y").implicitMultiplication(false).tryBuild(report));
+        assertEquals(ErrorCode.TOO_MANY_OPERANDS, report.getErrorCode(0));
+        assertEquals(3, report.getPosition(0));
+
+        assertNull(new ExpressionBuilder("()").tryBuild(report));
+        assertEquals(ErrorCode.EMPTY_EXPRESSION, report.getErrorCode(0));
+        assertNull(new ExpressionBuilder("(())").tryBuild(report));
+        assertEquals(1, report.getErrorCount());
+        assertEquals(ErrorCode.EMPTY_EXPRESSION, report.getErrorCode(0));
+    }
+
+    @Test
+    void testTryBuildPositionsAreCharOffsets() {
+        ValidationReport report = new ValidationReport();
+        assertNull(new ExpressionBuilder("1 + ").tryBuild(report));
+        assertEquals(ErrorCode.TOO_MANY_OPERATORS, report.getErrorCode(0));
+        assertEquals(2, report.getPosition(0));
+
+        /* leading whitespace is counted for parse and structural errors alike */
+        assertNull(new ExpressionBuilder(" beta(1)").function(beta).tryBuild(report));
+        assertEquals(ErrorCode.NOT_ENOUGH_ARGUMENTS, report.getErrorCode(0));
+        assertEquals(1, report.getPosition(0));
+        assertNull(new ExpressionBuilder("  2 * foo").tryBuild(report));
+        assertEquals(6, report.getPosition(0));
+        assertEquals("foo", report.getSubject(0));
+        assertNull(new ExpressionBuilder("  1 +").tryBuild(report));
+        assertEquals(4, report.getPosition(0));
+    }
+
+    @Test
+    void testEmptyProgramIsInvalid() {
+        Expression e = new ExpressionBuilder("()").build();
+        ValidationResult result = e.validate(false);
+        assertFalse(result.isValid());
+        assertEquals(Collections.singletonList("The expression has no operands"), result.getErrors());
+        assertThrows(IllegalArgumentException.class, e::evaluate);
+    }
+
+    @Test
+    void testTryBuildWithContext() {
+        ParserContext context = ParserContext.builder().variables("x").build();
+        ValidationReport report = new ValidationReport();
+        assertNotNull(context.expression("x^2").tryBuild(report));
+        assertNull(context.expression("y^2").tryBuild(report));
+        assertEquals(ErrorCode.UNKNOWN_FUNCTION_OR_VARIABLE, report.getErrorCode(0));
+        assertEquals("y", report.getSubject(0));
+        assertEquals(0, report.getPosition(0));
+    }
 }
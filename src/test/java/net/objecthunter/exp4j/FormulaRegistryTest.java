@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FormulaRegistryTest {
+
+    private static final ParserContext CONTEXT = ParserContext.builder()
+            .variables("gross", "tax")
+            .build();
+
+    @Test
+    void testPublish() {
+        FormulaRegistry registry = new FormulaRegistry();
+        assertNull(registry.get("net"));
+        assertEquals(0, registry.snapshot().getVersion());
+
+        Expression expression = CONTEXT.expression("gross * (1 - tax)").build();
+        assertEquals(1, registry.publish("net", expression));
+        /* the registry keeps its own copy */
+        expression.setVariable("gross", 1d);
+        assertThrows(IllegalArgumentException.class, () -> registry.get("net").evaluate());
+
+        Expression net = registry.get("net").setVariable("gross", 100d).setVariable("tax", 0.2);
+        assertEquals(80d, net.evaluate(), 0d);
+        assertNotSame(net, registry.get("net"));
+    }
+
+    @Test
+    void testSnapshotIsolation() {
+        FormulaRegistry registry = new FormulaRegistry();
+        registry.publish("a", CONTEXT.expression("gross").build());
+        FormulaRegistry.Snapshot before = registry.snapshot();
+
+        Map<String, Expression> batch = new HashMap<>();
+        batch.put("a", CONTEXT.expression("2 * gross").build());
+        batch.put("b", CONTEXT.expression("tax").build());
+        assertEquals(2, registry.publishAll(batch));
+
+        assertEquals(Collections.singleton("a"), before.getIds());
+        assertEquals(1d, before.get("a").setVariable("gross", 1d).evaluate(), 0d);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), registry.snapshot().getIds());
+        assertEquals(2d, registry.get("a").setVariable("gross", 1d).evaluate(), 0d);
+
+        assertEquals(3, registry.remove("a"));
+        assertEquals(Collections.singleton("b"), registry.snapshot().getIds());
+        assertEquals(4, registry.replaceAll(Collections.emptyMap()));
+        assertTrue(registry.snapshot().getIds().isEmpty());
+    }
+
+    @Test
+    void testConcurrentPublish() throws Exception {
+        FormulaRegistry registry = new FormulaRegistry();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    registry.publish(thread + "-" + i, CONTEXT.expression(Integer.toString(i)).build());
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400, registry.snapshot().getVersion());
+        assertEquals(400, registry.snapshot().getIds().size());
+    }
+
+    @Test
+    void testReload(@TempDir Path directory) throws Exception {
+        write(directory, "net.exp", "gross * (1 - tax)");
+        write(directory, "notes.txt", "not a formula");
+        FormulaRegistry registry = new FormulaRegistry();
+        registry.reload(directory, CONTEXT);
+        assertEquals(Collections.singleton("net"), registry.snapshot().getIds());
+
+        write(directory, "broken.exp", "gross * unknown");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> registry.reload(directory, CONTEXT));
+        assertTrue(e.getMessage().contains("'broken'"));
+        assertEquals(Collections.singleton("net"), registry.snapshot().getIds());
+    }
+
+    @Test
+    void testWatch(@TempDir Path directory) throws Exception {
+        write(directory, "net.exp", "gross * (1 - tax)");
+        FormulaRegistry registry = new FormulaRegistry();
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        try (Closeable watch = registry.watch(directory, CONTEXT, errors::add)) {
+            assertNotNull(registry.get("net"));
+
+            write(directory, "net.exp", "gross");
+            write(directory, "tax.exp", "gross * tax");
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (registry.get("tax") == null
+                    || registry.get("net").getVariableNames().contains("tax")) {
+                assertTrue(System.currentTimeMillis() < deadline, "the changes have not been reloaded");
+                Thread.sleep(10);
+            }
+        }
+        assertTrue(errors.isEmpty());
+    }
+
+    /* the file is replaced atomically, so the watcher never sees a partially written formula */
+    private static void write(Path directory, String name, String content) throws Exception {
+        Path temp = Files.write(directory.resolve(name + ".tmp"), content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    }
+}
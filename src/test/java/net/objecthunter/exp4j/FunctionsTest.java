@@ -17,7 +17,10 @@ package net.objecthunter.exp4j;
 
 import net.objecthunter.exp4j.function.AbstractFunction;
 import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function3;
 import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator2;
+import net.objecthunter.exp4j.operator.Operators;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -125,4 +128,55 @@ class FunctionsTest {
         assertFalse(Functions.isValidFunctionName("perc%"));
         assertFalse(Functions.isValidFunctionName("del$a"));
     }
+
+    @Test
+    void testArityFunctionsCalledWithoutArray() {
+        Function3 clamp = new Function3() {
+            @Override
+            public String getName() {
+                return "clamp";
+            }
+
+            @Override
+            public double apply(double x, double min, double max) {
+                return Math.max(min, Math.min(max, x));
+            }
+
+            @Override
+            public double apply(double... args) {
+                throw new AssertionError("the argument array should not be used");
+            }
+        };
+        Operator2 average = new Operator2() {
+            @Override
+            public boolean isLeftAssociative() {
+                return true;
+            }
+
+            @Override
+            public int getPrecedence() {
+                return Operators.PRECEDENCE_ADDITION;
+            }
+
+            @Override
+            public String getSymbol() {
+                return "&";
+            }
+
+            @Override
+            public double apply(double left, double right) {
+                return (left + right) / 2;
+            }
+        };
+
+        Expression e = new ExpressionBuilder("clamp(x & 9, 2, 4) + clamp(sin(0), 1, 2)")
+                .function(clamp)
+                .operator(average)
+                .variables("x")
+                .build();
+        assertEquals(3, clamp.getNumArguments());
+        assertEquals(4.5, average.apply(new double[]{4, 5}), 0d);
+        assertEquals(5d, e.setVariable("x", 1d).evaluate(), 0d);
+        assertEquals(3d, e.setVariable("x", -6d).evaluate(), 0d);
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.exception.UnknownFunctionOrVariableException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazyExpressionTest {
+
+    private static final ParserContext CONTEXT = ParserContext.builder().variables("x", "y").build();
+
+    @Test
+    void testParsedOnFirstUse() {
+        LazyExpression lazy = CONTEXT.expression("x * y + 1").buildLazy();
+        assertFalse(lazy.isParsed());
+        assertEquals("x * y + 1", lazy.getExpression());
+
+        Expression e = lazy.get();
+        assertTrue(lazy.isParsed());
+        assertEquals(7d, e.setVariable("x", 2).setVariable("y", 3).evaluate(), 0d);
+
+        /* every call returns an independent copy */
+        assertThrows(IllegalArgumentException.class, () -> lazy.get().evaluate());
+    }
+
+    @Test
+    void testParseErrorsOnDemand() {
+        LazyExpression lazy = CONTEXT.expression("x * z").buildLazy();
+        assertFalse(lazy.isParsed());
+
+        ValidationResult result = lazy.validate();
+        assertTrue(lazy.isParsed());
+        assertFalse(result.isValid());
+        assertEquals(1, result.getErrors().size());
+
+        assertThrows(UnknownFunctionOrVariableException.class, lazy::get);
+        assertThrows(UnknownFunctionOrVariableException.class, lazy::get);
+    }
+
+    @Test
+    void testValidateStructure() {
+        assertTrue(CONTEXT.expression("x + y").buildLazy().validate().isValid());
+        assertFalse(CONTEXT.expression("x +").buildLazy().validate().isValid());
+    }
+
+    @Test
+    void testBuilderChangesDoNotAffectHandle() {
+        ExpressionBuilder builder = new ExpressionBuilder("x + y").variables("x");
+        LazyExpression lazy = builder.buildLazy();
+        builder.variable("y");
+
+        assertFalse(lazy.validate().isValid());
+        assertNotNull(builder.build());
+    }
+
+    @Test
+    void testConcurrentFirstUse() throws Exception {
+        LazyExpression lazy = CONTEXT.expression("sin(x)^2 + cos(x)^2").buildLazy();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Double>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                double x = i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return lazy.get().setVariable("x", x).evaluate();
+                }));
+            }
+            start.countDown();
+            for (Future<Double> result : results) {
+                assertEquals(1d, result.get(), 1e-12);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testPreparseAll() throws Exception {
+        List<LazyExpression> expressions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expressions.add(CONTEXT.expression(i % 100 == 0 ? "x +* unknown" : "x * " + i).buildLazy());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            LazyExpression.preparseAll(expressions, executor).get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        int invalid = 0;
+        for (LazyExpression e : expressions) {
+            assertTrue(e.isParsed());
+            if (!e.validate().isValid()) {
+                invalid++;
+            }
+        }
+        assertEquals(10, invalid);
+        assertEquals(42d, expressions.get(21).get().setVariable("x", 2).evaluate(), 0d);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameTableTest {
+
+    @Test
+    void testGetInPlace() {
+        NameTable names = new NameTable(3);
+        names.put("pi", "pi");
+        names.put("pie", "pie");
+        names.put("e", Math.E);
+
+        String expression = "2 * pie";
+        assertEquals("pie", names.get(expression.toCharArray(), 4, 3, "pie".hashCode()));
+        assertEquals("pi", names.get(expression.toCharArray(), 4, 2, "pi".hashCode()));
+        assertNull(names.get(expression.toCharArray(), 2, 3, "* p".hashCode()));
+        assertEquals(Math.E, names.get("e"));
+        assertEquals(3, names.getMaxNameLength());
+    }
+
+    @Test
+    void testPrefixHash() {
+        String name = "var_42_abcdefghijklmnopqrstuvwxyzé";
+        int hash = name.hashCode();
+        for (int len = name.length(); len > 0; len--) {
+            assertEquals(name.substring(0, len).hashCode(), hash);
+            hash = NameTable.prefixHash(hash, name.charAt(len - 1));
+        }
+        assertEquals(0, hash);
+    }
+
+    @Test
+    void testPutReplaces() {
+        NameTable names = new NameTable(1);
+        names.put("x", 1d);
+        names.put("x", "x");
+        assertEquals("x", names.get("x"));
+        assertNull(names.get("y"));
+    }
+}
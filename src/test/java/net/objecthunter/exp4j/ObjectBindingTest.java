@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectBindingTest {
+
+    /** Shaped like a record: accessors named like the components */
+    private static final class Order {
+        private final double price;
+        private final int quantity;
+
+        Order(double price, int quantity) {
+            this.price = price;
+            this.quantity = quantity;
+        }
+
+        double price() {
+            return price;
+        }
+
+        int quantity() {
+            return quantity;
+        }
+    }
+
+    /** A bean with getters, a boolean property and a public field */
+    public static class Item {
+        public long weight = 3;
+
+        public Double getDiscount() {
+            return 0.5;
+        }
+
+        public boolean isExpress() {
+            return true;
+        }
+    }
+
+    public static class SpecialItem extends Item {
+    }
+
+    @Test
+    void testRecordAccessors() {
+        ToDoubleFunction<Order> total = new ExpressionBuilder("price * quantity")
+                .variables("price", "quantity")
+                .bindTo(Order.class);
+        List<Order> orders = Arrays.asList(new Order(2.5, 4), new Order(1, 3));
+        assertEquals(13d, orders.stream().mapToDouble(total).sum(), 0d);
+        assertEquals(orders.parallelStream().mapToDouble(total).sum(), 13d, 0d);
+    }
+
+    @Test
+    void testGeneratedAccessors() {
+        ObjectBinding<Item> binding = (ObjectBinding<Item>) new ExpressionBuilder("weight + discount + express")
+                .variables("weight", "discount", "express")
+                .bindTo(Item.class);
+        /* only the method returning a number is generated, the field and the boolean use method handles */
+        assertArrayEquals(new boolean[]{false, true, false}, binding.generated);
+        assertEquals(4.5, binding.applyAsDouble(new Item()), 0d);
+
+        ObjectBinding<Order> order = (ObjectBinding<Order>) new ExpressionBuilder("price * quantity")
+                .variables("price", "quantity")
+                .bindTo(Order.class);
+        assertArrayEquals(new boolean[]{true, true}, order.generated);
+        assertEquals(7.5, order.applyAsDouble(new Order(2.5, 3)), 0d);
+    }
+
+    @Test
+    void testBeanAccessors() {
+        ToDoubleFunction<Item> cost = new ExpressionBuilder("weight * (1 - discount) + 10 express + 2pi")
+                .variables("weight", "discount", "express")
+                .bindTo(Item.class);
+        assertEquals(1.5 + 10 + 2 * Math.PI, cost.applyAsDouble(new SpecialItem()), 1e-12);
+    }
+
+    @Test
+    void testOverridableConstantsKeepTheirValue() {
+        ToDoubleFunction<Order> f = new ExpressionBuilder("price * pi")
+                .variables("price")
+                .overridableConstants(true)
+                .bindTo(Order.class);
+        assertEquals(2 * Math.PI, f.applyAsDouble(new Order(2, 1)), 1e-12);
+    }
+
+    @Test
+    void testMissingAccessor() {
+        ExpressionBuilder builder = new ExpressionBuilder("price * tax").variables("price", "tax");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> builder.bindTo(Order.class));
+        assertTrue(e.getMessage().contains("'tax'"));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExpressionBuilder("price +").variables("price").bindTo(Order.class));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.AbstractFunction;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.AbstractOperator;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParserContextTest {
+
+    private static final Function TWICE = new AbstractFunction("twice") {
+        @Override
+        public double apply(double... args) {
+            return 2 * args[0];
+        }
+    };
+
+    private static final Operator FACTORIAL = new AbstractOperator("!", 1, true, Operators.PRECEDENCE_POWER + 1) {
+        @Override
+        public double apply(double... args) {
+            double result = 1;
+            for (int i = 2; i <= (int) args[0]; i++) {
+                result *= i;
+            }
+            return result;
+        }
+    };
+
+    @Test
+    void testBuildFromContext() {
+        ParserContext context = ParserContext.builder()
+                .function(TWICE)
+                .operator(FACTORIAL)
+                .variables("x", "y")
+                .build();
+
+        Expression e = context.expression("twice(x) + 3! * y")
+                .build()
+                .setVariable("x", 2)
+                .setVariable("y", 0.5);
+        assertEquals(7d, e.evaluate(), 0d);
+
+        e = context.expression("2pi x").build().setVariable("x", 1);
+        assertEquals(2 * Math.PI, e.evaluate(), 0d);
+    }
+
+    @Test
+    void testContextIsImmutable() {
+        ParserContext context = ParserContext.builder().variable("x").build();
+        assertThrows(UnsupportedOperationException.class, () -> context.getVariableNames().add("y"));
+
+        /* adding symbols to a builder does not leak into the context */
+        Expression e = context.expression("x + y").variable("y").build();
+        assertEquals(3d, e.setVariable("x", 1).setVariable("y", 2).evaluate(), 0d);
+        assertFalse(context.getVariableNames().contains("y"));
+        assertThrows(IllegalArgumentException.class, () -> context.expression("x + y").build());
+    }
+
+    @Test
+    void testBuildTwice() {
+        ParserContext.Builder builder = ParserContext.builder().variable("x").overridableConstants(true);
+        assertTrue(builder.build().getVariableNames().contains("pi"));
+
+        /* the constants of the first context are not left behind in the builder */
+        ParserContext inlined = builder.overridableConstants(false).build();
+        assertEquals(Collections.singleton("x"), inlined.getVariableNames());
+        assertTrue(inlined.expression("2pi").build().getVariableNames().isEmpty());
+    }
+
+    @Test
+    void testImplicitMultiplication() {
+        ParserContext context = ParserContext.builder()
+                .variables("x", "y")
+                .implicitMultiplication(false)
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> context.expression("x y").build().evaluate());
+        assertEquals(2d, context.expression("x y")
+                .implicitMultiplication(true)
+                .build()
+                .setVariable("x", 1)
+                .setVariable("y", 2)
+                .evaluate(), 0d);
+    }
+
+    @Test
+    void testVariableFunctionClash() {
+        assertThrows(IllegalArgumentException.class, () -> ParserContext.builder().variable("sin").build());
+        assertThrows(IllegalArgumentException.class,
+                () -> ParserContext.builder().function(TWICE).variable("twice").build());
+    }
+
+    @Test
+    void testCacheKeyUsesContext() {
+        ParserContext context = ParserContext.builder().variable("x").build();
+        ExpressionCache cache = new ExpressionCache(1 << 20);
+        cache.get(context.expression("x + 1"));
+        cache.get(context.expression("x + 1"));
+        cache.get(ParserContext.builder().variable("x").build().expression("x + 1"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+}
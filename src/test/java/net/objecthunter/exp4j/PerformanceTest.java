@@ -56,6 +56,76 @@ class PerformanceTest {
         System.out.print(sb.toString());
     }
 
+    @Test
+    void testParseBenches() {
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+%n");
+        fmt.format("| %-22s | %-25s |%n", "Parse benchmark", "Builds per Second");
+        fmt.format("+------------------------+---------------------------+%n");
+
+        String[] names = generateVariableNames(200, 40);
+        /* warm up the parser, otherwise the first row mostly measures the JIT */
+        benchParse(generateSum(names), names);
+        int longNames = benchParse(generateSum(names), names);
+        fmt.format("| %-22s | %25.2f |%n", "200 long variables", (double) longNames / (double) BENCH_TIME);
+
+        int context = benchParse(generateSum(names), ParserContext.builder().variables(names).build());
+        fmt.format("| %-22s | %25.2f |%n", "200 long vars, context", (double) context / (double) BENCH_TIME);
+
+        int simple = benchParse(EXPRESSION, "x", "y");
+        fmt.format("| %-22s | %25.2f |%n", "Simple expression", (double) simple / (double) BENCH_TIME);
+        fmt.format("+------------------------+---------------------------+%n");
+        System.out.print(sb);
+    }
+
+    private static String[] generateVariableNames(int count, int length) {
+        String[] names = new String[count];
+        StringBuilder name = new StringBuilder(length);
+        for (int i = 0; i < count; i++) {
+            name.setLength(0);
+            name.append("var_").append(i).append('_');
+            while (name.length() < length) {
+                name.append((char) ('a' + name.length() % 26));
+            }
+            names[i] = name.toString();
+        }
+        return names;
+    }
+
+    private static String generateSum(String[] names) {
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                expression.append(i % 2 == 0 ? " + " : " * ");
+            }
+            expression.append(names[i]).append(" * ").append(i).append(".5");
+        }
+        return expression.toString();
+    }
+
+    private int benchParse(String expression, String... variables) {
+        long time = System.currentTimeMillis() + (1000 * BENCH_TIME);
+        int count = 0;
+        while (time > System.currentTimeMillis()) {
+            new ExpressionBuilder(expression)
+                    .variables(variables)
+                    .build();
+            count++;
+        }
+        return count;
+    }
+
+    private int benchParse(String expression, ParserContext context) {
+        long time = System.currentTimeMillis() + (1000 * BENCH_TIME);
+        int count = 0;
+        while (time > System.currentTimeMillis()) {
+            context.expression(expression).build();
+            count++;
+        }
+        return count;
+    }
+
     private int benchDouble() {
         final Expression expression = new ExpressionBuilder(EXPRESSION)
                 .variables("x", "y")
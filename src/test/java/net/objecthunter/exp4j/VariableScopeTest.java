@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VariableScopeTest {
+
+    private static final VariableScope GLOBAL = VariableScope.of(Collections.singletonMap("vat", 0.2));
+
+    @Test
+    void testChainedLookup() {
+        Map<String, Double> parameters = new HashMap<>();
+        parameters.put("margin", 0.3);
+        parameters.put("vat", 0.1);
+        VariableScope tenant = GLOBAL.with(parameters);
+        parameters.put("margin", 0.5);
+
+        assertEquals(0.1, tenant.get("vat"), 0d);
+        assertEquals(0.3, tenant.get("margin"), 0d);
+        assertEquals(0.2, GLOBAL.get("vat"), 0d);
+        assertNull(GLOBAL.get("margin"));
+        assertSame(GLOBAL, tenant.getParent());
+        assertEquals(new HashSet<>(Arrays.asList("vat", "margin")), tenant.getNames());
+        assertEquals(2d, tenant.with("margin", 2d).get("margin"), 0d);
+        assertThrows(IllegalArgumentException.class,
+                () -> VariableScope.of(Collections.singletonMap("x", null)));
+    }
+
+    @Test
+    void testScopeValuesInlined() {
+        VariableScope tenant = GLOBAL.with("margin", 0.5);
+        Expression formula = new ExpressionBuilder("cost * (1 + margin) * (1 + vat)")
+                .variables("cost", "margin", "vat")
+                .build()
+                .setVariable("cost", 10d);
+        Expression bound = formula.withScope(tenant);
+
+        /* only the per call input is left */
+        assertEquals(Collections.singleton("cost"), bound.getVariableNames());
+        assertEquals(18d, bound.evaluate(), 1e-12);
+        assertEquals(36d, new Expression(bound).setVariable("cost", 20d).evaluate(), 1e-12);
+        assertTrue(bound.estimateSize() < formula.estimateSize() + 16);
+        assertEquals(formula.getVariableNames(), formula.withScope(VariableScope.EMPTY).getVariableNames());
+    }
+
+    @Test
+    void testBuilderScope() {
+        VariableScope tenant = GLOBAL.with("margin", 0.5);
+        Expression e = new ExpressionBuilder("cost * (1 + margin) * (1 + vat)")
+                .variables("cost")
+                .scope(tenant)
+                .build();
+        assertEquals(Collections.singleton("cost"), e.getVariableNames());
+        assertEquals(1.8, e.setVariable("cost", 1d).evaluate(), 1e-12);
+
+        ParserContext context = ParserContext.builder().variables("cost", "margin", "vat").build();
+        ExpressionCache cache = new ExpressionCache(16);
+        Expression first = cache.get(context.expression("cost * margin").scope(tenant));
+        Expression second = cache.get(context.expression("cost * margin"));
+        assertEquals(Collections.singleton("cost"), first.getVariableNames());
+        assertEquals(new HashSet<>(Arrays.asList("cost", "margin")), second.getVariableNames());
+    }
+}
@@ -24,6 +24,8 @@ import org.junit.jupiter.api.Test;
 import java.util.*;
 
 import static net.objecthunter.exp4j.TestUtil.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class ShuntingYardTest {
 
@@ -145,4 +147,23 @@ class ShuntingYardTest {
         assertOperatorToken(tokens.get(1), "$", 1, Operators.PRECEDENCE_DIVISION);
     }
 
+    @Test
+    void testShuntingYardNestedFunctions() {
+        List<Token> tokens = ShuntingYard.convertToRPN("pow(2, -sin[1]) * {3}", null, null, null, true);
+        assertNumberToken(tokens.get(0), 2d);
+        assertNumberToken(tokens.get(1), 1d);
+        assertFunctionToken(tokens.get(2), "sin", 1);
+        assertOperatorToken(tokens.get(3), "-", 1, Operators.PRECEDENCE_UNARY_MINUS);
+        assertFunctionToken(tokens.get(4), "pow", 2);
+        assertNumberToken(tokens.get(5), 3d);
+        assertOperatorToken(tokens.get(6), "*", 2, Operators.PRECEDENCE_MULTIPLICATION);
+        assertEquals(7, tokens.size());
+    }
+
+    @Test
+    void testShuntingYardMismatchedParentheses() {
+        assertThrows(IllegalArgumentException.class, () -> ShuntingYard.convertToRPN("2)", null, null, null, true));
+        assertThrows(IllegalArgumentException.class, () -> ShuntingYard.convertToRPN("(2", null, null, null, true));
+        assertThrows(IllegalArgumentException.class, () -> ShuntingYard.convertToRPN("2,3", null, null, null, true));
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.tokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FastDoubleParserTest {
+
+    private static void assertParsed(String literal) {
+        double expected = Double.parseDouble(literal);
+        double actual = FastDoubleParser.parseDouble(literal, 0, literal.length());
+        assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual), literal);
+    }
+
+    @Test
+    void testSimpleLiterals() {
+        String[] literals = {"0", "1", "7", ".5", "1.", "0.1", "3.14159", "00012.50", "1e3", "1E-3",
+                "2.5e+10", "0.000001", "123456789012345678", "9007199254740993", "1e22", "1e23",
+                "4.9e-324", "2.2250738585072014E-308", "1.7976931348623157e308", "1e309", "1e-400",
+                "0e5", "0.0", "1234567890123456789", "12345678901234567890", "0.30000000000000004"};
+        for (String literal : literals) {
+            assertParsed(literal);
+        }
+    }
+
+    @Test
+    void testRandomDoubles() {
+        Random rnd = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double value = Double.longBitsToDouble(rnd.nextLong() & Long.MAX_VALUE);
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            assertParsed(Double.toString(value));
+            assertParsed(new BigDecimal(value).round(new java.math.MathContext(1 + rnd.nextInt(19))).toString());
+        }
+    }
+
+    @Test
+    void testRandomDigits() {
+        Random rnd = new Random(4711);
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            literal.setLength(0);
+            int numDigits = 1 + rnd.nextInt(19);
+            for (int j = 0; j < numDigits; j++) {
+                literal.append((char) ('0' + rnd.nextInt(10)));
+            }
+            literal.insert(rnd.nextInt(numDigits + 1), '.');
+            literal.append('e').append(rnd.nextInt(700) - 350);
+            assertParsed(literal.toString());
+        }
+    }
+
+    @Test
+    void testSubRange() {
+        assertEquals(125d, FastDoubleParser.parseDouble("x+12.5e1*y", 2, 6), 0d);
+    }
+
+    @Test
+    void testMalformedLiterals() {
+        for (String literal : new String[]{".", "1.2.3", "1e", "2e+", "1e5e3"}) {
+            assertThrows(NumberFormatException.class,
+                    () -> FastDoubleParser.parseDouble(literal, 0, literal.length()), literal);
+        }
+    }
+}
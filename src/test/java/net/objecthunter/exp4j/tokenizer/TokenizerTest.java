@@ -15,9 +15,12 @@
  */
 package net.objecthunter.exp4j.tokenizer;
 
+import net.objecthunter.exp4j.exception.UnknownFunctionOrVariableException;
 import net.objecthunter.exp4j.function.AbstractFunction;
 import net.objecthunter.exp4j.operator.AbstractOperator;
 import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.UnaryFunctionEnum;
+import net.objecthunter.exp4j.operator.BinaryOperators;
 import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.operator.Operators;
 import org.junit.jupiter.api.Test;
@@ -25,7 +28,11 @@ import org.junit.jupiter.api.Test;
 import java.util.*;
 
 import static net.objecthunter.exp4j.TestUtil.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class TokenizerTest {
@@ -551,4 +558,99 @@ class TokenizerTest {
 
         assertFalse(tokenizer.hasNext());
     }
+
+    @Test
+    void testTokenizationLongestMatch() {
+        Tokenizer tokenizer = new Tokenizer("abcd", null, null, new HashSet<>(Arrays.asList("a", "abc")));
+
+        assertTrue(tokenizer.hasNext());
+        assertVariableToken(tokenizer.nextToken(), "abc");
+
+        assertTrue(tokenizer.hasNext());
+        assertOperatorToken(tokenizer.nextToken(), "*", 2, Operators.PRECEDENCE_MULTIPLICATION);
+
+        assertThrows(UnknownFunctionOrVariableException.class, tokenizer::nextToken);
+    }
+
+    @Test
+    void testTokenizationUserFunctionOverridesBuiltin() {
+        Function sin = new AbstractFunction("sin") {
+            @Override
+            public double apply(double... args) {
+                return 0d;
+            }
+        };
+        Map<String, Function> functions = new HashMap<>();
+        functions.put("sin", sin);
+        Tokenizer tokenizer = new Tokenizer("sinh(sin(1))", functions, null, null);
+
+        assertTrue(tokenizer.hasNext());
+        assertFunctionToken(tokenizer.nextToken(), "sinh", 1);
+
+        assertTrue(tokenizer.hasNext());
+        assertOpenParenthesesToken(tokenizer.nextToken());
+
+        assertTrue(tokenizer.hasNext());
+        assertSame(sin, ((FunctionToken) tokenizer.nextToken()).getFunction());
+    }
+
+    @Test
+    void testTokenizationLongestOperatorMatch() {
+        Operator reverse = new AbstractOperator("*~", 2, true, Operators.PRECEDENCE_MULTIPLICATION) {
+            @Override
+            public double apply(double... args) {
+                return args[1] * args[0];
+            }
+        };
+        Map<String, Operator> operators = new HashMap<>();
+        operators.put(reverse.getSymbol(), reverse);
+        Tokenizer tokenizer = new Tokenizer("2*~3*-4", null, operators, null);
+
+        assertNumberToken(tokenizer.nextToken(), 2d);
+        assertSame(reverse, ((OperatorToken) tokenizer.nextToken()).getOperator());
+        assertNumberToken(tokenizer.nextToken(), 3d);
+        assertOperatorToken(tokenizer.nextToken(), "*", 2, Operators.PRECEDENCE_MULTIPLICATION);
+        assertOperatorToken(tokenizer.nextToken(), "-", 1, Operators.PRECEDENCE_UNARY_MINUS);
+        assertNumberToken(tokenizer.nextToken(), 4d);
+        assertFalse(tokenizer.hasNext());
+    }
+
+    @Test
+    void testTokenizationSharesTokens() {
+        Map<String, Operator> operators = new HashMap<>();
+        operators.put("*~", new AbstractOperator("*~", 2, true, Operators.PRECEDENCE_MULTIPLICATION) {
+            @Override
+            public double apply(double... args) {
+                return args[1] * args[0];
+            }
+        });
+        Set<String> variables = new HashSet<>(Collections.singletonList("x"));
+        SymbolTrie<Token> names = Tokenizer.createNames(null, variables);
+        SymbolTrie<OperatorToken> userOperators = Tokenizer.createOperators(operators);
+
+        Token[] first = tokenize(new Tokenizer("2x *~ sin(x) + 0.5", names, userOperators, true));
+        Token[] second = tokenize(new Tokenizer("2x *~ sin(x) + 0.5", names, userOperators, true));
+
+        assertEquals(first.length, second.length);
+        for (int i = 0; i < first.length; i++) {
+            if (first[i].getType() == TokenType.TOKEN_NUMBER && ((NumberToken) first[i]).getValue() == 0.5) {
+                /* only small integers are cached */
+                assertNotSame(first[i], second[i]);
+            } else {
+                assertSame(first[i], second[i]);
+            }
+        }
+        assertSame(FunctionToken.of(UnaryFunctionEnum.SIN), first[4]);
+        assertSame(OperatorToken.of(BinaryOperators.MULTIPLICATION), first[1]);
+        assertNotSame(NumberToken.valueOf(0d), NumberToken.valueOf(-0d));
+        assertEquals(-0d, NumberToken.valueOf(-0d).getValue(), 0d);
+    }
+
+    private static Token[] tokenize(Tokenizer tokenizer) {
+        List<Token> tokens = new ArrayList<>();
+        while (tokenizer.hasNext()) {
+            tokens.add(tokenizer.nextToken());
+        }
+        return tokens.toArray(new Token[0]);
+    }
 }